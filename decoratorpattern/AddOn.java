@@ -0,0 +1,83 @@
+package decoratorpattern;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+import decoratorpattern.CoffeeDecoratorPattern.ChocolateSyrup;
+import decoratorpattern.CoffeeDecoratorPattern.IceCream;
+import decoratorpattern.CoffeeDecoratorPattern.WhippedCream;
+
+/**
+ * The add-on decorators, as values that code can switch over, store and count.
+ */
+enum AddOn {
+
+    WHIPPED_CREAM {
+        @Override
+        Beverage wrap(Beverage beverage) {
+            return new WhippedCream(beverage);
+        }
+
+        @Override
+        Beverage unwrap(Beverage decorator) {
+            return ((WhippedCream) decorator).beverage;
+        }
+    },
+    CHOCOLATE_SYRUP {
+        @Override
+        Beverage wrap(Beverage beverage) {
+            return new ChocolateSyrup(beverage);
+        }
+
+        @Override
+        Beverage unwrap(Beverage decorator) {
+            return ((ChocolateSyrup) decorator).beverage;
+        }
+    },
+    ICE_CREAM {
+        @Override
+        Beverage wrap(Beverage beverage) {
+            return new IceCream(beverage);
+        }
+
+        @Override
+        Beverage unwrap(Beverage decorator) {
+            return ((IceCream) decorator).beverage;
+        }
+    };
+
+    private static final AddOn[] VALUES = values();
+
+    /**
+     * @return the beverage decorated with this add-on
+     */
+    abstract Beverage wrap(Beverage beverage);
+
+    /**
+     * @param decorator a decorator of this add-on
+     * @return the beverage it wraps
+     */
+    abstract Beverage unwrap(Beverage decorator);
+
+    /**
+     * @return the add-on of the decorator, null if it is not an add-on decorator we know
+     */
+    static AddOn of(Beverage beverage){
+        if (beverage instanceof WhippedCream){
+            return WHIPPED_CREAM;
+        }
+        if (beverage instanceof ChocolateSyrup){
+            return CHOCOLATE_SYRUP;
+        }
+        if (beverage instanceof IceCream){
+            return ICE_CREAM;
+        }
+        return null;
+    }
+
+    static AddOn valueOf(int ordinal){
+        return VALUES[ordinal];
+    }
+
+    static int count(){
+        return VALUES.length;
+    }
+}
@@ -0,0 +1,138 @@
+package decoratorpattern;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Add-ons as data instead of one decorator subclass each : names and prices read from a
+ * config file, and a single decorator class, {@link CatalogAddOn}, that looks its price up
+ * in the catalog.
+ *
+ * The file has one add-on per line, like "Whipped Cream = 25". Blank lines and lines starting
+ * with # are ignored.
+ *
+ * Prices can be reloaded while orders are being priced. Decorators only keep the id of their
+ * add-on, so existing chains get the new prices without being rebuilt. Add-ons missing from a
+ * reloaded file keep their last price, so that no chain is left with an unknown add-on.
+ */
+class AddOnCatalog {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    // indexed by id, replaced as a whole on reload so that a reader sees one version of the prices
+    private volatile String[] names = new String[0];
+
+    volatile float[] prices = new float[0];
+
+    static AddOnCatalog load(Path path) throws IOException {
+        AddOnCatalog catalog = new AddOnCatalog();
+        catalog.reload(path);
+        return catalog;
+    }
+
+    static AddOnCatalog load(Reader reader) throws IOException {
+        AddOnCatalog catalog = new AddOnCatalog();
+        catalog.reload(reader);
+        return catalog;
+    }
+
+    void reload(Path path) throws IOException {
+        try (Reader reader = Files.newBufferedReader(path)){
+            reload(reader);
+        }
+    }
+
+    /**
+     * Applies the prices of the file, and adds the add-ons we didn't know.
+     */
+    synchronized void reload(Reader reader) throws IOException {
+        Map<String, Float> loaded = parse(reader);
+        String[] newNames = Arrays.copyOf(names, names.length + loaded.size());
+        float[] newPrices = Arrays.copyOf(prices, newNames.length);
+        int known = names.length;
+        int count = known;
+        for (Map.Entry<String, Float> addOn : loaded.entrySet()){
+            Integer id = ids.get(addOn.getKey());
+            if (id == null){
+                id = count++;
+                newNames[id] = addOn.getKey();
+            }
+            newPrices[id] = addOn.getValue();
+        }
+        newNames = Arrays.copyOf(newNames, count);
+        newPrices = Arrays.copyOf(newPrices, count);
+        // names first, a reader that sees an id of the new prices finds its name
+        names = newNames;
+        prices = newPrices;
+        for (int id = known; id < count; id++){
+            ids.put(newNames[id], id);
+        }
+    }
+
+    synchronized void setPrice(String name, float price){
+        float[] newPrices = prices.clone();
+        newPrices[id(name)] = price;
+        prices = newPrices;
+    }
+
+    /**
+     * @return the beverage decorated with the add-on
+     * @throws IllegalArgumentException if the add-on is not in the catalog
+     */
+    Beverage wrap(Beverage beverage, String name){
+        return new CatalogAddOn(beverage, this, id(name));
+    }
+
+    int id(String name){
+        Integer id = ids.get(name);
+        if (id == null){
+            throw new IllegalArgumentException("No add-on " + name + " in the catalog");
+        }
+        return id;
+    }
+
+    String name(int id){
+        return names[id];
+    }
+
+    float price(int id){
+        return prices[id];
+    }
+
+    int size(){
+        return prices.length;
+    }
+
+    private static Map<String, Float> parse(Reader reader) throws IOException {
+        Map<String, Float> addOns = new LinkedHashMap<>();
+        BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()){
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")){
+                continue;
+            }
+            int equals = line.lastIndexOf('=');
+            String name = equals > 0 ? line.substring(0, equals).trim() : "";
+            if (name.isEmpty()){
+                throw new IllegalArgumentException("Line " + lineNumber + " is not \"name = price\" : " + line);
+            }
+            try {
+                addOns.put(name, Float.parseFloat(line.substring(equals + 1).trim()));
+            } catch (NumberFormatException e){
+                throw new IllegalArgumentException("Bad price on line " + lineNumber + " : " + line, e);
+            }
+        }
+        return addOns;
+    }
+}
@@ -0,0 +1,205 @@
+package decoratorpattern;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import decoratorpattern.CoffeeDecoratorPattern.AddOnDecorator;
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+import decoratorpattern.CoffeeDecoratorPattern.ChocolateSyrup;
+import decoratorpattern.CoffeeDecoratorPattern.IceCream;
+import decoratorpattern.CoffeeDecoratorPattern.WhippedCream;
+
+/**
+ * Measures getCost() on chains of add-ons with one decorator subclass per add-on, and on the
+ * same chains built with the single {@link CatalogAddOn} class.
+ *
+ * Chains pick 1 to 6 add-ons out of the first 2, 3 and then all 8 add-on kinds, so the
+ * subclass call sites go from bimorphic to megamorphic. Kinds only grow from one run to the
+ * next, as the JIT's type profiles only ever widen. Prints the best ns per getCost() of a
+ * few rounds, after checking that both chains cost the same.
+ *
+ * Usage : AddOnDispatchBenchmark [chains] [calls per chain]
+ */
+public class AddOnDispatchBenchmark {
+
+    private static final String[] NAMES = {"Whipped Cream", "Chocolate Syrup", "Ice Cream",
+            "Caramel", "Vanilla", "Cinnamon", "Honey", "Hazelnut"};
+
+    private static final int[] KINDS = {2, 3, NAMES.length};
+
+    private static final int MAX_ADD_ONS = 6;
+
+    private static final int ROUNDS = 5;
+
+    // more add-ons the old way, each with its own getCost() so that the JIT sees different targets
+
+    private static class Caramel extends AddOnDecorator {
+
+        final Beverage beverage;
+
+        Caramel(Beverage beverage){
+            this.beverage = beverage;
+        }
+
+        @Override
+        public float getCost() {
+            return 35 + beverage.getCost();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Caramel + " + beverage.getDescription();
+        }
+    }
+
+    private static class Vanilla extends AddOnDecorator {
+
+        final Beverage beverage;
+
+        Vanilla(Beverage beverage){
+            this.beverage = beverage;
+        }
+
+        @Override
+        public float getCost() {
+            return 20 + beverage.getCost();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Vanilla + " + beverage.getDescription();
+        }
+    }
+
+    private static class Cinnamon extends AddOnDecorator {
+
+        final Beverage beverage;
+
+        Cinnamon(Beverage beverage){
+            this.beverage = beverage;
+        }
+
+        @Override
+        public float getCost() {
+            return 10 + beverage.getCost();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Cinnamon + " + beverage.getDescription();
+        }
+    }
+
+    private static class Honey extends AddOnDecorator {
+
+        final Beverage beverage;
+
+        Honey(Beverage beverage){
+            this.beverage = beverage;
+        }
+
+        @Override
+        public float getCost() {
+            return 15 + beverage.getCost();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Honey + " + beverage.getDescription();
+        }
+    }
+
+    private static class Hazelnut extends AddOnDecorator {
+
+        final Beverage beverage;
+
+        Hazelnut(Beverage beverage){
+            this.beverage = beverage;
+        }
+
+        @Override
+        public float getCost() {
+            return 40 + beverage.getCost();
+        }
+
+        @Override
+        public String getDescription() {
+            return "Hazelnut + " + beverage.getDescription();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int chainCount = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int calls = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+
+        AddOnCatalog catalog = AddOnCatalog.load(new StringReader("# same prices as the subclasses\n"
+                + "Whipped Cream = 25\nChocolate Syrup = 30\nIce Cream = 50\n"
+                + "Caramel = 35\nVanilla = 20\nCinnamon = 10\nHoney = 15\nHazelnut = 40\n"));
+
+        for (int kinds : KINDS){
+            Random random = new Random(42);
+            BaseBeverage[] bases = BaseBeverage.values();
+            Beverage[] subclassChains = new Beverage[chainCount];
+            Beverage[] catalogChains = new Beverage[chainCount];
+            for (int i = 0; i < chainCount; i++){
+                BaseBeverage base = bases[random.nextInt(bases.length)];
+                Beverage subclassChain = base.create();
+                Beverage catalogChain = base.create();
+                for (int j = 1 + random.nextInt(MAX_ADD_ONS); j > 0; j--){
+                    int kind = random.nextInt(kinds);
+                    subclassChain = wrap(subclassChain, kind);
+                    catalogChain = catalog.wrap(catalogChain, NAMES[kind]);
+                }
+                if (subclassChain.getCost() != catalogChain.getCost()
+                        || !subclassChain.getDescription().equals(catalogChain.getDescription())){
+                    throw new IllegalStateException("Catalog chain differs from " + subclassChain.getDescription());
+                }
+                subclassChains[i] = subclassChain;
+                catalogChains[i] = catalogChain;
+            }
+            System.out.println(String.format("%d add-on kinds : subclasses %6.2f ns, catalog %6.2f ns per getCost()",
+                    kinds, measure(subclassChains, calls), measure(catalogChains, calls)));
+        }
+    }
+
+    private static Beverage wrap(Beverage beverage, int kind){
+        switch (kind){
+            case 0:
+                return new WhippedCream(beverage);
+            case 1:
+                return new ChocolateSyrup(beverage);
+            case 2:
+                return new IceCream(beverage);
+            case 3:
+                return new Caramel(beverage);
+            case 4:
+                return new Vanilla(beverage);
+            case 5:
+                return new Cinnamon(beverage);
+            case 6:
+                return new Honey(beverage);
+            default:
+                return new Hazelnut(beverage);
+        }
+    }
+
+    private static double measure(Beverage[] chains, int calls){
+        long best = Long.MAX_VALUE;
+        float checksum = 0;
+        for (int round = 0; round < ROUNDS; round++){
+            long start = System.nanoTime();
+            for (int call = 0; call < calls; call++){
+                for (Beverage chain : chains){
+                    checksum += chain.getCost();
+                }
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (checksum == 42){
+            // never true, keeps the JIT from dropping the calls
+            System.out.println();
+        }
+        return (double) best / ((long) calls * chains.length);
+    }
+}
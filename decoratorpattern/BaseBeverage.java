@@ -0,0 +1,59 @@
+package decoratorpattern;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+import decoratorpattern.CoffeeDecoratorPattern.DarkRoast;
+import decoratorpattern.CoffeeDecoratorPattern.Decaf;
+import decoratorpattern.CoffeeDecoratorPattern.Espresso;
+
+/**
+ * The concrete beverage components, as values that code can switch over, store and count.
+ */
+enum BaseBeverage {
+
+    ESPRESSO {
+        @Override
+        Beverage create() {
+            return new Espresso();
+        }
+    },
+    DARK_ROAST {
+        @Override
+        Beverage create() {
+            return new DarkRoast();
+        }
+    },
+    DECAF {
+        @Override
+        Beverage create() {
+            return new Decaf();
+        }
+    };
+
+    private static final BaseBeverage[] VALUES = values();
+
+    abstract Beverage create();
+
+    /**
+     * @return the kind of the component, null if it is not one we know
+     */
+    static BaseBeverage of(Beverage beverage){
+        if (beverage instanceof Espresso){
+            return ESPRESSO;
+        }
+        if (beverage instanceof DarkRoast){
+            return DARK_ROAST;
+        }
+        if (beverage instanceof Decaf){
+            return DECAF;
+        }
+        return null;
+    }
+
+    static BaseBeverage valueOf(int ordinal){
+        return VALUES[ordinal];
+    }
+
+    static int count(){
+        return VALUES.length;
+    }
+}
@@ -0,0 +1,220 @@
+package decoratorpattern;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Builds beverages as flyweights : two orders for the same drink get the same objects.
+ *
+ * Beverages are hash-consed into a DAG. There is one canonical beverage per base, and each
+ * canonical beverage has, per add-on, the one canonical decorator that wraps it. So
+ * "Whipped Cream + Espresso" is created once, and "Ice Cream + Whipped Cream + Espresso"
+ * shares it as its inner beverage. Looking up a drink that exists is a walk through those
+ * tables, one identity map lookup and one array read per add-on, and allocates nothing.
+ *
+ * The tables live in the interner, in a concurrent map from weak references to each canonical
+ * beverage to its wrappers, so beverages carry no interner state. A table only keeps weak
+ * references to the wrappers, so drinks that no order uses any more are garbage collected,
+ * and their tables are dropped the next time a wrapper is created. The base beverages stay.
+ *
+ * Thread safe. Lookups of existing drinks take no lock : a map read and an atomic array read
+ * per add-on. Only creating a wrapper takes the interner's lock. Interned beverages are shared;
+ * the decorators' fields are final, and the beverages must not be modified otherwise.
+ */
+class BeverageInterner {
+
+    /**
+     * The canonical wrappers of one canonical beverage, by add-on.
+     * Must not reference the beverage, which is only weakly held by its key.
+     */
+    private static final class Wrappers {
+
+        final AtomicReferenceArray<WeakReference<Beverage>> byAddOn = new AtomicReferenceArray<>(AddOn.count());
+    }
+
+    /**
+     * Map key of a canonical beverage, by identity. A cleared key is only equal to itself,
+     * so it can still be removed.
+     */
+    private static final class WeakKey extends WeakReference<Beverage> {
+
+        private final int hash;
+
+        WeakKey(Beverage beverage, ReferenceQueue<Beverage> queue){
+            super(beverage, queue);
+            hash = System.identityHashCode(beverage);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this){
+                return true;
+            }
+            Beverage beverage = get();
+            return beverage != null && other instanceof WeakKey && ((WeakKey) other).get() == beverage;
+        }
+    }
+
+    /**
+     * Probe for map lookups, one per thread so that lookups allocate nothing.
+     */
+    private static final class LookupKey {
+
+        Beverage beverage;
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(beverage);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof WeakKey && ((WeakKey) other).get() == beverage;
+        }
+    }
+
+    private static final ThreadLocal<LookupKey> LOOKUP_KEY = ThreadLocal.withInitial(LookupKey::new);
+
+    private final Beverage[] bases = new Beverage[BaseBeverage.count()];
+
+    private final ConcurrentHashMap<Object, Wrappers> tables = new ConcurrentHashMap<>();
+
+    // keys of the collected beverages. Guarded by creationLock
+    private final ReferenceQueue<Beverage> collected = new ReferenceQueue<>();
+
+    private final Object creationLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+
+    BeverageInterner(){
+        for (BaseBeverage base : BaseBeverage.values()){
+            Beverage beverage = base.create();
+            bases[base.ordinal()] = beverage;
+            tables.put(new WeakKey(beverage, collected), new Wrappers());
+        }
+    }
+
+    /**
+     * @return the canonical beverage of the base
+     */
+    Beverage base(BaseBeverage base){
+        return bases[base.ordinal()];
+    }
+
+    /**
+     * @param beverage a beverage of this interner
+     * @return the canonical beverage decorated with the add-on
+     * @throws IllegalArgumentException if the beverage was not made by this interner
+     */
+    Beverage with(Beverage beverage, AddOn addOn){
+        Wrappers wrappers = wrappersOf(beverage);
+        if (wrappers == null){
+            throw new IllegalArgumentException("Not a beverage of this interner : " + beverage.getDescription());
+        }
+        int slot = addOn.ordinal();
+        Beverage wrapper = wrapper(wrappers, slot);
+        if (wrapper != null){
+            hits.increment();
+            return wrapper;
+        }
+        synchronized (creationLock){
+            // another thread may have created it in the meantime
+            wrapper = wrapper(wrappers, slot);
+            if (wrapper != null){
+                hits.increment();
+                return wrapper;
+            }
+            dropCollectedTables();
+            wrapper = addOn.wrap(beverage);
+            // the table goes in first, so that anyone who sees the wrapper also finds its table
+            tables.put(new WeakKey(wrapper, collected), new Wrappers());
+            wrappers.byAddOn.set(slot, new WeakReference<>(wrapper));
+            return wrapper;
+        }
+    }
+
+    /**
+     * @param addOns add-ons, innermost first
+     * @return the canonical beverage of the base with the add-ons
+     */
+    Beverage order(BaseBeverage base, AddOn... addOns){
+        Beverage beverage = base(base);
+        for (AddOn addOn : addOns){
+            beverage = with(beverage, addOn);
+        }
+        return beverage;
+    }
+
+    /**
+     * @param beverage any chain of the known beverages and add-ons
+     * @return the canonical beverage equal to it, or the beverage itself if it has parts
+     * this interner does not know
+     */
+    Beverage intern(Beverage beverage){
+        Beverage interned = internOrNull(beverage);
+        return interned != null ? interned : beverage;
+    }
+
+    /**
+     * @return number of interned wrappers still alive, base beverages excluded
+     */
+    long size(){
+        synchronized (creationLock){
+            dropCollectedTables();
+            return tables.size() - bases.length;
+        }
+    }
+
+    /**
+     * @return number of lookups that found an existing wrapper
+     */
+    long hits(){
+        return hits.sum();
+    }
+
+    private Wrappers wrappersOf(Beverage beverage){
+        LookupKey key = LOOKUP_KEY.get();
+        key.beverage = beverage;
+        try {
+            return tables.get(key);
+        } finally {
+            // don't keep the beverage from being collected
+            key.beverage = null;
+        }
+    }
+
+    private static Beverage wrapper(Wrappers wrappers, int slot){
+        WeakReference<Beverage> reference = wrappers.byAddOn.get(slot);
+        return reference == null ? null : reference.get();
+    }
+
+    // must be called while holding creationLock
+    private void dropCollectedTables(){
+        Reference<? extends Beverage> key;
+        while ((key = collected.poll()) != null){
+            tables.remove(key);
+        }
+    }
+
+    // null if the beverage has parts we don't know
+    private Beverage internOrNull(Beverage beverage){
+        AddOn addOn = AddOn.of(beverage);
+        if (addOn != null){
+            Beverage inner = internOrNull(addOn.unwrap(beverage));
+            return inner != null ? with(inner, addOn) : null;
+        }
+        BaseBeverage base = BaseBeverage.of(beverage);
+        return base != null ? base(base) : null;
+    }
+}
@@ -0,0 +1,186 @@
+package decoratorpattern;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Replays a day of orders and keeps them all in memory, once built with new decorators for
+ * every order and once built through a {@link BeverageInterner}.
+ *
+ * Orders pick one of the 363 drinks with up to 4 add-ons, with a Zipf popularity : a few
+ * drinks make up most of the orders, like on a real menu. Prints the heap taken by the
+ * orders' beverages and the bytes allocated per order, then drops the orders to show that
+ * the interned drinks are collected. Also times lookups of the interned drinks from several
+ * threads at once, as hits take no lock.
+ *
+ * Usage : BeverageInternerBenchmark [orders]
+ */
+public class BeverageInternerBenchmark {
+
+    private static final int MAX_ADD_ONS = 4;
+
+    private static final double ZIPF_EXPONENT = 1.1;
+
+    /**
+     * A drink of the menu.
+     */
+    private static class Drink {
+
+        final BaseBeverage base;
+
+        // innermost first
+        final AddOn[] addOns;
+
+        Drink(BaseBeverage base, AddOn[] addOns){
+            this.base = base;
+            this.addOns = addOns;
+        }
+
+        Beverage build(){
+            Beverage beverage = base.create();
+            for (AddOn addOn : addOns){
+                beverage = addOn.wrap(beverage);
+            }
+            return beverage;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        List<Drink> menu = new ArrayList<>();
+        for (BaseBeverage base : BaseBeverage.values()){
+            addDrinks(menu, base, new AddOn[0]);
+        }
+        Drink[] orders = zipfOrders(menu, orderCount, new Random(42));
+        Beverage[] beverages = new Beverage[orderCount];
+
+        long baseline = usedHeapAfterGc();
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < orderCount; i++){
+            beverages[i] = orders[i].build();
+        }
+        long plainAllocated = allocatedBytes() - allocatedBefore;
+        long plainHeap = usedHeapAfterGc() - baseline;
+        System.out.println(String.format("%d orders of %d drinks", orderCount, menu.size()));
+        System.out.println(String.format("new decorators : %6.1f MB of beverages, %5.1f bytes allocated per order",
+                plainHeap / 1e6, (double) plainAllocated / orderCount));
+
+        Arrays.fill(beverages, null);
+        BeverageInterner interner = new BeverageInterner();
+        baseline = usedHeapAfterGc();
+        allocatedBefore = allocatedBytes();
+        for (int i = 0; i < orderCount; i++){
+            beverages[i] = interner.order(orders[i].base, orders[i].addOns);
+        }
+        long internedAllocated = allocatedBytes() - allocatedBefore;
+        long internedHeap = usedHeapAfterGc() - baseline;
+        System.out.println(String.format("interned       : %6.1f MB of beverages, %5.1f bytes allocated per order,"
+                        + " %d wrappers interned, %d lookups hit",
+                internedHeap / 1e6, (double) internedAllocated / orderCount, interner.size(), interner.hits()));
+        for (int i = 0; i < orderCount; i++){
+            if (beverages[i].getCost() != orders[i].build().getCost()){
+                throw new IllegalStateException("Interned drink differs from its order at " + i);
+            }
+        }
+
+        // a second day of the same orders allocates nothing new
+        allocatedBefore = allocatedBytes();
+        for (int i = 0; i < orderCount; i++){
+            beverages[i] = interner.order(orders[i].base, orders[i].addOns);
+        }
+        System.out.println(String.format("replayed again : %5.3f bytes allocated per order",
+                (double) (allocatedBytes() - allocatedBefore) / orderCount));
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[]{1, Math.max(2, cores)}){
+            System.out.println(String.format("%2d threads     : %5.1f ns per order looked up",
+                    threads, lookupNanosPerOrder(interner, orders, threads)));
+        }
+
+        beverages = null;
+        usedHeapAfterGc();
+        System.out.println("orders dropped : " + interner.size() + " wrappers still interned");
+    }
+
+    /**
+     * Every thread looks up all the orders in the interner.
+     * @return wall time per order, over all threads
+     */
+    private static double lookupNanosPerOrder(final BeverageInterner interner, final Drink[] orders, int threadCount)
+            throws InterruptedException {
+        final Beverage[] last = new Beverage[threadCount];
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++){
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (Drink order : orders){
+                    last[thread] = interner.order(order.base, order.addOns);
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads){
+            thread.start();
+        }
+        for (Thread thread : threads){
+            thread.join();
+        }
+        return (double) (System.nanoTime() - start) / ((long) orders.length * threadCount);
+    }
+
+    /**
+     * Adds the drink and all drinks with more add-ons on top of it.
+     */
+    private static void addDrinks(List<Drink> menu, BaseBeverage base, AddOn[] addOns){
+        menu.add(new Drink(base, addOns));
+        if (addOns.length == MAX_ADD_ONS){
+            return;
+        }
+        for (AddOn addOn : AddOn.values()){
+            AddOn[] more = Arrays.copyOf(addOns, addOns.length + 1);
+            more[addOns.length] = addOn;
+            addDrinks(menu, base, more);
+        }
+    }
+
+    private static Drink[] zipfOrders(List<Drink> menu, int count, Random random){
+        // popularity rank is a random shuffle of the menu, weight of rank r is 1 / r^s
+        List<Drink> ranked = new ArrayList<>(menu);
+        Collections.shuffle(ranked, random);
+        double[] cumulative = new double[ranked.size()];
+        double total = 0;
+        for (int r = 0; r < cumulative.length; r++){
+            total += 1 / Math.pow(r + 1, ZIPF_EXPONENT);
+            cumulative[r] = total;
+        }
+        Drink[] orders = new Drink[count];
+        for (int i = 0; i < count; i++){
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            orders[i] = ranked.get(rank >= 0 ? rank : Math.min(-rank - 1, cumulative.length - 1));
+        }
+        return orders;
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++){
+            System.gc();
+            // let the reference handler enqueue the cleared weak references
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long allocatedBytes(){
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,228 @@
+package decoratorpattern;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Prices millions of orders at once, for the end of day reconciliation, and sums them up.
+ *
+ * The orders are split into ranges priced in parallel on a fork-join pool. getCost() is only
+ * called once per distinct configuration of the beverage : prices are memoized by
+ * {@link PackedBeverage} code, in a map shared by all ranges and kept between calls, with a
+ * small cache per range in front of it so that the workers don't all hit the shared map.
+ * Beverages with parts that can't be packed are priced with getCost() every time.
+ *
+ * The memoized price is the one of the first order of that configuration. Add-ons summed in
+ * another order could differ in the last bit of the float if prices were not whole numbers.
+ */
+class BulkPricer {
+
+    private static final int DEFAULT_LEAF_SIZE = 16 * 1024;
+
+    // per range cache, a power of two, twice the number of configurations it holds
+    private static final int LOCAL_CACHE_SLOTS = 1024;
+
+    private final ForkJoinPool pool;
+
+    private final int leafSize;
+
+    private final ConcurrentHashMap<Long, Float> memo = new ConcurrentHashMap<>();
+
+    private final LongAdder costsComputed = new LongAdder();
+
+    BulkPricer(){
+        this(ForkJoinPool.commonPool(), DEFAULT_LEAF_SIZE);
+    }
+
+    /**
+     * @param leafSize orders priced by one task, without splitting further
+     */
+    BulkPricer(ForkJoinPool pool, int leafSize){
+        if (leafSize < 1){
+            throw new IllegalArgumentException("leafSize must be positive : " + leafSize);
+        }
+        this.pool = pool;
+        this.leafSize = leafSize;
+    }
+
+    /**
+     * @param costs the price of each order is written at its index, or null to only sum them
+     */
+    Summary price(Beverage[] orders, float[] costs){
+        if (costs != null && costs.length < orders.length){
+            throw new IllegalArgumentException("costs is shorter than orders : " + costs.length);
+        }
+        return pool.invoke(new PricingTask(orders, costs, 0, orders.length));
+    }
+
+    Summary price(Beverage[] orders){
+        return price(orders, null);
+    }
+
+    /**
+     * @return number of distinct configurations memoized
+     */
+    int memoSize(){
+        return memo.size();
+    }
+
+    /**
+     * @return number of times getCost() was called, memo misses and beverages we can't pack
+     */
+    long costsComputed(){
+        return costsComputed.sum();
+    }
+
+    /**
+     * Totals of a bulk of orders.
+     */
+    static class Summary {
+
+        private long orders;
+
+        private double total;
+
+        // indexed by base beverage ordinal
+        private final double[] totalsByBase = new double[BaseBeverage.count()];
+
+        private long unpackedOrders;
+
+        long getOrders() {
+            return orders;
+        }
+
+        double getTotal() {
+            return total;
+        }
+
+        double getTotal(BaseBeverage base) {
+            return totalsByBase[base.ordinal()];
+        }
+
+        /**
+         * @return number of orders with parts we could not pack, they are in no base's total
+         */
+        long getUnpackedOrders() {
+            return unpackedOrders;
+        }
+
+        private Summary merge(Summary other){
+            orders += other.orders;
+            total += other.total;
+            for (int i = 0; i < totalsByBase.length; i++){
+                totalsByBase[i] += other.totalsByBase[i];
+            }
+            unpackedOrders += other.unpackedOrders;
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder(String.format("%d orders for %.2f", orders, total));
+            for (BaseBeverage base : BaseBeverage.values()){
+                description.append(String.format(", %s %.2f", base.name(), getTotal(base)));
+            }
+            if (unpackedOrders > 0){
+                description.append(", ").append(unpackedOrders).append(" unpacked");
+            }
+            return description.toString();
+        }
+    }
+
+    private class PricingTask extends RecursiveTask<Summary> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Beverage[] orders;
+
+        private final float[] costs;
+
+        private final int from;
+
+        private final int to;
+
+        PricingTask(Beverage[] orders, float[] costs, int from, int to){
+            this.orders = orders;
+            this.costs = costs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Summary compute() {
+            if (to - from <= leafSize){
+                return priceRange();
+            }
+            int middle = (from + to) >>> 1;
+            PricingTask left = new PricingTask(orders, costs, from, middle);
+            left.fork();
+            Summary right = new PricingTask(orders, costs, middle, to).compute();
+            return left.join().merge(right);
+        }
+
+        private Summary priceRange(){
+            Summary summary = new Summary();
+            long[] cachedKeys = new long[LOCAL_CACHE_SLOTS];
+            float[] cachedCosts = new float[LOCAL_CACHE_SLOTS];
+            Arrays.fill(cachedKeys, PackedBeverage.UNKNOWN);
+            int cached = 0;
+            for (int i = from; i < to; i++){
+                Beverage order = orders[i];
+                long key = PackedBeverage.tryEncode(order);
+                float cost;
+                if (key == PackedBeverage.UNKNOWN){
+                    costsComputed.increment();
+                    cost = order.getCost();
+                    summary.unpackedOrders++;
+                } else {
+                    int slot = slot(key, cachedKeys, LOCAL_CACHE_SLOTS - 1);
+                    if (cachedKeys[slot] == key){
+                        cost = cachedCosts[slot];
+                    } else {
+                        cost = memoizedCost(key, order);
+                        if (cached < LOCAL_CACHE_SLOTS / 2){
+                            // the slot is free, a full slot would have held our key
+                            cachedKeys[slot] = key;
+                            cachedCosts[slot] = cost;
+                            cached++;
+                        }
+                    }
+                    summary.totalsByBase[(int) key & PackedBeverage.BASE_MASK] += cost;
+                }
+                if (costs != null){
+                    costs[i] = cost;
+                }
+                summary.total += cost;
+            }
+            summary.orders = to - from;
+            return summary;
+        }
+    }
+
+    private float memoizedCost(long key, Beverage order){
+        Float cost = memo.get(key);
+        if (cost == null){
+            costsComputed.increment();
+            cost = order.getCost();
+            Float raced = memo.putIfAbsent(key, cost);
+            if (raced != null){
+                cost = raced;
+            }
+        }
+        return cost;
+    }
+
+    // linear probing, ends on the key or on a free slot
+    private static int slot(long key, long[] keys, int mask){
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (keys[slot] != key && keys[slot] != PackedBeverage.UNKNOWN){
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
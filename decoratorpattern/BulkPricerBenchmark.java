@@ -0,0 +1,76 @@
+package decoratorpattern;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Reprices a day of decorated orders one at a time with getCost(), then with a
+ * {@link BulkPricer} on fork-join pools of 1, 2, 4... workers up to the number of cores.
+ *
+ * Orders are a random base with up to 4 random add-ons. Prints the best ns per order of a few
+ * rounds and the speedup over 1 worker, after checking that every run gives the same total.
+ *
+ * Usage : BulkPricerBenchmark [orders] [max workers]
+ */
+public class BulkPricerBenchmark {
+
+    private static final int MAX_ADD_ONS = 4;
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        int maxWorkers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Random random = new Random(42);
+        BaseBeverage[] bases = BaseBeverage.values();
+        AddOn[] addOns = AddOn.values();
+        Beverage[] orders = new Beverage[orderCount];
+        for (int i = 0; i < orderCount; i++){
+            Beverage beverage = bases[random.nextInt(bases.length)].create();
+            for (int j = random.nextInt(MAX_ADD_ONS + 1); j > 0; j--){
+                beverage = addOns[random.nextInt(addOns.length)].wrap(beverage);
+            }
+            orders[i] = beverage;
+        }
+
+        double expectedTotal = 0;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++){
+            long start = System.nanoTime();
+            double total = 0;
+            for (Beverage order : orders){
+                total += order.getCost();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            expectedTotal = total;
+        }
+        System.out.println(String.format("%d orders, %d cores", orderCount, Runtime.getRuntime().availableProcessors()));
+        System.out.println(String.format("one at a time    : %6.2f ns per order", (double) best / orderCount));
+
+        double singleWorker = 0;
+        for (int workers = 1; workers <= maxWorkers; workers *= 2){
+            ForkJoinPool pool = new ForkJoinPool(workers);
+            BulkPricer pricer = new BulkPricer(pool, 16 * 1024);
+            BulkPricer.Summary summary = null;
+            best = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++){
+                long start = System.nanoTime();
+                summary = pricer.price(orders);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            pool.shutdown();
+            if (summary.getTotal() != expectedTotal){
+                throw new IllegalStateException("Bulk total " + summary.getTotal() + " differs from " + expectedTotal);
+            }
+            double nanosPerOrder = (double) best / orderCount;
+            if (workers == 1){
+                singleWorker = nanosPerOrder;
+            }
+            System.out.println(String.format("bulk, %3d workers : %6.2f ns per order, %4.2fx, %d configurations, %d getCost() calls",
+                    workers, nanosPerOrder, singleWorker / nanosPerOrder, pricer.memoSize(), pricer.costsComputed()));
+        }
+    }
+}
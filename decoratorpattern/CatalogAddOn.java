@@ -0,0 +1,55 @@
+package decoratorpattern;
+
+import decoratorpattern.CoffeeDecoratorPattern.AddOnDecorator;
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * The one decorator class for every add-on of an {@link AddOnCatalog}.
+ *
+ * With a subclass per add-on, each getCost() call site in a chain sees as many classes as
+ * there are add-ons, and past two the JIT stops inlining and makes a virtual call per wrapper.
+ * Here the add-ons above the base are walked in a loop, all with the same class, and prices
+ * are read from one version of the catalog's price array. Only the base beverage is a
+ * virtual call.
+ *
+ * Prices are summed from the outermost add-on in, then the base is added.
+ */
+final class CatalogAddOn extends AddOnDecorator {
+
+    final Beverage beverage;
+
+    final AddOnCatalog catalog;
+
+    final int id;
+
+    CatalogAddOn(Beverage beverage, AddOnCatalog catalog, int id){
+        this.beverage = beverage;
+        this.catalog = catalog;
+        this.id = id;
+    }
+
+    @Override
+    public float getCost() {
+        float[] prices = catalog.prices;
+        float cost = prices[id];
+        Beverage inner = beverage;
+        while (inner instanceof CatalogAddOn){
+            CatalogAddOn addOn = (CatalogAddOn) inner;
+            cost += addOn.catalog == catalog ? prices[addOn.id] : addOn.catalog.price(addOn.id);
+            inner = addOn.beverage;
+        }
+        return cost + inner.getCost();
+    }
+
+    @Override
+    public String getDescription() {
+        StringBuilder description = new StringBuilder(catalog.name(id)).append(" + ");
+        Beverage inner = beverage;
+        while (inner instanceof CatalogAddOn){
+            CatalogAddOn addOn = (CatalogAddOn) inner;
+            description.append(addOn.catalog.name(addOn.id)).append(" + ");
+            inner = addOn.beverage;
+        }
+        return description.append(inner.getDescription()).toString();
+    }
+}
@@ -1,5 +1,8 @@
 package decoratorpattern;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 /**
  * Created by priyankvex on 16/5/17.
  *
@@ -25,7 +28,7 @@ public class CoffeeDecoratorPattern {
     /**
      * Abstract component for the beverage
      */
-    private static abstract class Beverage {
+    static abstract class Beverage {
 
         String description = "Unknown beverage";
 
@@ -42,7 +45,7 @@ public class CoffeeDecoratorPattern {
      * In turn, this will make type of components and decorators same to be of type
      * {@link Beverage}
      */
-    private static abstract class AddOnDecorator extends Beverage {
+    static abstract class AddOnDecorator extends Beverage {
 
         /**
          * We will implement this method again in the decorator to extend this functionality.
@@ -54,7 +57,7 @@ public class CoffeeDecoratorPattern {
     /**
      * Concrete component for Espresso beverage.
      */
-    private static class Espresso extends Beverage {
+    static class Espresso extends Beverage {
 
         public Espresso(){
             this.description = "Espresso";
@@ -69,7 +72,7 @@ public class CoffeeDecoratorPattern {
     /**
      * Concrete component for Dark Roast beverage.
      */
-    private static class DarkRoast extends Beverage {
+    static class DarkRoast extends Beverage {
 
         public DarkRoast(){
             this.description = "Dark Roast";
@@ -84,7 +87,7 @@ public class CoffeeDecoratorPattern {
     /**
      * Concrete component for Decaf beverage.
      */
-    private static class Decaf extends Beverage {
+    static class Decaf extends Beverage {
 
         public Decaf(){
             this.description = "Decaf";
@@ -99,10 +102,10 @@ public class CoffeeDecoratorPattern {
     /**
      * Decorator for the whipped cream add on.
      */
-    private static class WhippedCream extends AddOnDecorator {
+    static class WhippedCream extends AddOnDecorator {
 
-        // hold the reference to the component it is wrapping
-        Beverage beverage;
+        // hold the reference to the component it is wrapping. Final, so that a decorator can be shared
+        final Beverage beverage;
 
         WhippedCream(Beverage beverage){
             this.beverage = beverage;
@@ -130,9 +133,9 @@ public class CoffeeDecoratorPattern {
     /**
      * Decorator for chocolate syrup add on.
      */
-    private static class ChocolateSyrup extends AddOnDecorator {
+    static class ChocolateSyrup extends AddOnDecorator {
 
-        Beverage beverage;
+        final Beverage beverage;
 
         ChocolateSyrup(Beverage beverage){
             this.beverage = beverage;
@@ -152,9 +155,9 @@ public class CoffeeDecoratorPattern {
     /**
      * Decorator for ice cream add on.
      */
-    private static class IceCream extends AddOnDecorator {
+    static class IceCream extends AddOnDecorator {
 
-        Beverage beverage;
+        final Beverage beverage;
 
         IceCream(Beverage beverage){
             this.beverage = beverage;
@@ -171,7 +174,7 @@ public class CoffeeDecoratorPattern {
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         // create a beverage that is an espresso
         Beverage b = new Espresso();
@@ -182,6 +185,33 @@ public class CoffeeDecoratorPattern {
 
         System.out.println(b.getDescription());
         System.out.println("Total cost of beverage : " + b.getCost());
+
+        // a drink that is priced over and over can be flattened, so the chain is walked only once
+        Beverage compiled = CompiledBeverage.compile(b);
+        System.out.println("Compiled : " + compiled.getDescription() + " for " + compiled.getCost());
+
+        // orders for the same drink can share one set of objects
+        BeverageInterner interner = new BeverageInterner();
+        Beverage first = interner.order(BaseBeverage.ESPRESSO, AddOn.CHOCOLATE_SYRUP, AddOn.WHIPPED_CREAM);
+        Beverage second = interner.intern(b);
+        System.out.println("Same drink, same object : " + (first == second));
+
+        // for bulk analytics, an order is a long and prices come from a table
+        long packed = PackedBeverage.encode(b);
+        PriceTable prices = PriceTable.fromDecorators();
+        System.out.println("Packed : " + PackedBeverage.toString(packed) + " for " + prices.price(packed)
+                + ", decoded back to " + PackedBeverage.decode(packed).getDescription());
+
+        // a whole day of orders is priced in parallel, getCost() once per distinct drink
+        Beverage[] day = {b, first, new IceCream(new Decaf()), new Espresso()};
+        System.out.println("Day : " + new BulkPricer().price(day));
+
+        // add-ons can also be data, with prices changed without rebuilding the drinks
+        AddOnCatalog catalog = AddOnCatalog.load(new StringReader("Whipped Cream = 25\nCaramel = 35\n"));
+        Beverage fromCatalog = catalog.wrap(catalog.wrap(new DarkRoast(), "Caramel"), "Whipped Cream");
+        System.out.println(fromCatalog.getDescription() + " : " + fromCatalog.getCost());
+        catalog.setPrice("Caramel", 40);
+        System.out.println("After a price change : " + fromCatalog.getCost());
     }
 
 }
@@ -0,0 +1,45 @@
+package decoratorpattern;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * A decorated beverage flattened into a single object, for drinks that are priced many times.
+ *
+ * getCost() and getDescription() on a decorator chain walk every wrapper, and getDescription()
+ * builds a new String at each of them. Compiling walks the chain once and keeps the results :
+ * the cost as a float, and the description interned, so that equal drinks share one String.
+ * Both calls are then a field read, however many add-ons the drink has.
+ *
+ * A compiled beverage is immutable and is itself a {@link Beverage}, so it can be used, or
+ * decorated further, wherever the chain was.
+ */
+final class CompiledBeverage extends Beverage {
+
+    private final float cost;
+
+    private CompiledBeverage(String description, float cost){
+        this.description = description;
+        this.cost = cost;
+    }
+
+    /**
+     * @return the beverage flattened, or the beverage itself if it is already compiled
+     */
+    static CompiledBeverage compile(Beverage beverage){
+        if (beverage instanceof CompiledBeverage){
+            return (CompiledBeverage) beverage;
+        }
+        // same float additions in the same order as the chain, so the cost is bit for bit the same
+        return new CompiledBeverage(beverage.getDescription().intern(), beverage.getCost());
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public float getCost() {
+        return cost;
+    }
+}
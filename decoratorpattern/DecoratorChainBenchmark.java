@@ -0,0 +1,84 @@
+package decoratorpattern;
+
+import java.lang.management.ManagementFactory;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+import decoratorpattern.CoffeeDecoratorPattern.ChocolateSyrup;
+import decoratorpattern.CoffeeDecoratorPattern.Espresso;
+import decoratorpattern.CoffeeDecoratorPattern.IceCream;
+import decoratorpattern.CoffeeDecoratorPattern.WhippedCream;
+
+/**
+ * Measures getCost() + getDescription() on decorator chains of growing depth, walked as
+ * they are and once compiled into a {@link CompiledBeverage}.
+ *
+ * Prints ns and bytes allocated per call pair for every depth.
+ *
+ * Usage : DecoratorChainBenchmark [calls per depth]
+ */
+public class DecoratorChainBenchmark {
+
+    private static final int[] DEPTHS = {1, 5, 10, 20, 40};
+
+    public static void main(String[] args) {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+
+        for (int depth : DEPTHS){
+            Beverage chain = chain(depth);
+            Beverage compiled = CompiledBeverage.compile(chain);
+            if (Float.floatToIntBits(chain.getCost()) != Float.floatToIntBits(compiled.getCost())
+                    || !chain.getDescription().equals(compiled.getDescription())){
+                throw new IllegalStateException("Compiled beverage differs from its chain at depth " + depth);
+            }
+            System.out.println(String.format("depth %2d : chain %s, compiled %s",
+                    depth, measure(chain, calls), measure(compiled, calls)));
+        }
+    }
+
+    /**
+     * @return an espresso with depth add-ons, cycling through the three kinds
+     */
+    private static Beverage chain(int depth){
+        Beverage beverage = new Espresso();
+        for (int i = 0; i < depth; i++){
+            switch (i % 3){
+                case 0:
+                    beverage = new WhippedCream(beverage);
+                    break;
+                case 1:
+                    beverage = new ChocolateSyrup(beverage);
+                    break;
+                default:
+                    beverage = new IceCream(beverage);
+            }
+        }
+        return beverage;
+    }
+
+    private static String measure(Beverage beverage, int calls){
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // warm up so that the JIT has compiled the calls before we measure
+        long checksum = run(beverage, calls);
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        checksum += run(beverage, calls);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        if (checksum == 42){
+            // never true, keeps the JIT from dropping the calls
+            System.out.println();
+        }
+        return String.format("%7.1f ns %6.0f bytes", (double) elapsed / calls, (double) allocated / calls);
+    }
+
+    private static long run(Beverage beverage, int calls){
+        long checksum = 0;
+        for (int i = 0; i < calls; i++){
+            checksum += (long) beverage.getCost() + beverage.getDescription().length();
+        }
+        return checksum;
+    }
+}
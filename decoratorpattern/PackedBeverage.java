@@ -0,0 +1,153 @@
+package decoratorpattern;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Beverage configuration packed into a single long, for order analytics : the base beverage
+ * and how many of each add-on, instead of a chain of decorator objects.
+ *
+ * Layout, from the low bits up : 4 bits of {@link BaseBeverage} ordinal, then 6 bits of count
+ * per {@link AddOn}, in ordinal order. Room for 10 add-on kinds, up to 63 of each.
+ *
+ * The order of the add-ons is not kept. Decoding builds the add-ons in ordinal order,
+ * innermost first, so a round trip gives the same drink and cost, and possibly a description
+ * listing the add-ons in another order. Prices come from a {@link PriceTable}.
+ */
+final class PackedBeverage {
+
+    static final int BASE_BITS = 4;
+
+    static final int BASE_MASK = (1 << BASE_BITS) - 1;
+
+    static final int COUNT_BITS = 6;
+
+    static final int MAX_COUNT = (1 << COUNT_BITS) - 1;
+
+    // all ones would be base 15 with 63 of 10 add-ons, never a real beverage
+    static final long UNKNOWN = -1L;
+
+    static {
+        if (BaseBeverage.count() > 1 << BASE_BITS || BASE_BITS + AddOn.count() * COUNT_BITS > Long.SIZE){
+            throw new ExceptionInInitializerError("Too many beverages or add-ons to pack in a long");
+        }
+    }
+
+    private PackedBeverage(){
+        // only static helpers, a packed beverage is a long
+    }
+
+    static long of(BaseBeverage base){
+        return base.ordinal();
+    }
+
+    /**
+     * @return the configuration with one more of the add-on
+     */
+    static long withAddOn(long beverage, AddOn addOn){
+        int count = count(beverage, addOn);
+        if (count == MAX_COUNT){
+            throw new IllegalArgumentException("More than " + MAX_COUNT + " of " + addOn);
+        }
+        return beverage + (1L << shift(addOn));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the long is not a packed beverage, e.g. {@link #UNKNOWN}
+     */
+    static BaseBeverage base(long beverage){
+        return BaseBeverage.valueOf(baseOrdinal(beverage));
+    }
+
+    /**
+     * @return ordinal of the base beverage
+     * @throws IllegalArgumentException if the long is not a packed beverage, e.g. {@link #UNKNOWN}
+     */
+    static int baseOrdinal(long beverage){
+        int ordinal = (int) beverage & BASE_MASK;
+        if (ordinal >= BaseBeverage.count()){
+            throw new IllegalArgumentException("Not a packed beverage : " + Long.toHexString(beverage));
+        }
+        return ordinal;
+    }
+
+    static int count(long beverage, AddOn addOn){
+        return (int) (beverage >>> shift(addOn)) & MAX_COUNT;
+    }
+
+    /**
+     * @param beverage a chain of the known beverages and add-ons
+     * @throws IllegalArgumentException if the chain has parts we don't know
+     */
+    static long encode(Beverage beverage){
+        long packed = tryEncode(beverage);
+        if (packed == UNKNOWN){
+            throw new IllegalArgumentException("Can't pack " + beverage.getDescription());
+        }
+        return packed;
+    }
+
+    /**
+     * Like {@link #encode(Beverage)}, for bulk code that can't afford an exception per order.
+     *
+     * @return the packed beverage, or {@link #UNKNOWN} if the chain has parts we don't know
+     * or too many of an add-on
+     */
+    static long tryEncode(Beverage beverage){
+        long packed = 0;
+        AddOn addOn = AddOn.of(beverage);
+        while (addOn != null){
+            if (count(packed, addOn) == MAX_COUNT){
+                return UNKNOWN;
+            }
+            packed += 1L << shift(addOn);
+            beverage = addOn.unwrap(beverage);
+            addOn = AddOn.of(beverage);
+        }
+        BaseBeverage base = BaseBeverage.of(beverage);
+        return base != null ? packed | base.ordinal() : UNKNOWN;
+    }
+
+    /**
+     * @return a new decorator chain for the configuration
+     */
+    static Beverage decode(long beverage){
+        Beverage decoded = base(beverage).create();
+        for (AddOn addOn : AddOn.values()){
+            for (int i = count(beverage, addOn); i > 0; i--){
+                decoded = addOn.wrap(decoded);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @return the canonical chain for the configuration, shared with other orders of it
+     */
+    static Beverage decode(long beverage, BeverageInterner interner){
+        Beverage decoded = interner.base(base(beverage));
+        for (AddOn addOn : AddOn.values()){
+            for (int i = count(beverage, addOn); i > 0; i--){
+                decoded = interner.with(decoded, addOn);
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the long is not a packed beverage, e.g. {@link #UNKNOWN}
+     */
+    static String toString(long beverage){
+        StringBuilder description = new StringBuilder(base(beverage).name());
+        for (AddOn addOn : AddOn.values()){
+            int count = count(beverage, addOn);
+            if (count > 0){
+                description.append(" + ").append(count).append(' ').append(addOn.name());
+            }
+        }
+        return description.toString();
+    }
+
+    static int shift(AddOn addOn){
+        return BASE_BITS + addOn.ordinal() * COUNT_BITS;
+    }
+}
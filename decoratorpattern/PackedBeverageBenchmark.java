@@ -0,0 +1,92 @@
+package decoratorpattern;
+
+import java.util.Random;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Prices a day of orders kept as decorator chains, and the same orders kept as
+ * {@link PackedBeverage} longs priced through a {@link PriceTable}.
+ *
+ * Orders are a random base with up to 4 random add-ons. Prints the heap taken by the orders
+ * and the ns per order to price all of them, after checking that both give the same prices.
+ *
+ * Usage : PackedBeverageBenchmark [orders]
+ */
+public class PackedBeverageBenchmark {
+
+    private static final int MAX_ADD_ONS = 4;
+
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        Random random = new Random(42);
+        BaseBeverage[] bases = BaseBeverage.values();
+        AddOn[] addOns = AddOn.values();
+
+        long baseline = usedHeapAfterGc();
+        Beverage[] chains = new Beverage[orderCount];
+        for (int i = 0; i < orderCount; i++){
+            Beverage beverage = bases[random.nextInt(bases.length)].create();
+            for (int j = random.nextInt(MAX_ADD_ONS + 1); j > 0; j--){
+                beverage = addOns[random.nextInt(addOns.length)].wrap(beverage);
+            }
+            chains[i] = beverage;
+        }
+        long chainHeap = usedHeapAfterGc() - baseline;
+
+        baseline = usedHeapAfterGc();
+        long[] packed = new long[orderCount];
+        for (int i = 0; i < orderCount; i++){
+            packed[i] = PackedBeverage.encode(chains[i]);
+        }
+        long packedHeap = usedHeapAfterGc() - baseline;
+
+        PriceTable prices = PriceTable.fromDecorators();
+        float[] costs = new float[orderCount];
+        prices.price(packed, costs);
+        for (int i = 0; i < orderCount; i++){
+            if (Float.floatToIntBits(costs[i]) != Float.floatToIntBits(chains[i].getCost())
+                    || PackedBeverage.encode(PackedBeverage.decode(packed[i])) != packed[i]){
+                throw new IllegalStateException("Packed order differs from its chain at " + i);
+            }
+        }
+
+        System.out.println(String.format("%d orders", orderCount));
+        System.out.println(String.format("decorator chains : %6.1f MB, %5.2f ns per order priced",
+                chainHeap / 1e6, measureChains(chains, costs)));
+        System.out.println(String.format("packed longs     : %6.1f MB, %5.2f ns per order priced",
+                packedHeap / 1e6, measurePacked(prices, packed, costs)));
+    }
+
+    private static double measureChains(Beverage[] chains, float[] costs){
+        long elapsed = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++){
+            long start = System.nanoTime();
+            for (int i = 0; i < chains.length; i++){
+                costs[i] = chains[i].getCost();
+            }
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+        return (double) elapsed / chains.length;
+    }
+
+    private static double measurePacked(PriceTable prices, long[] packed, float[] costs){
+        long elapsed = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++){
+            long start = System.nanoTime();
+            prices.price(packed, costs);
+            elapsed = Math.min(elapsed, System.nanoTime() - start);
+        }
+        return (double) elapsed / packed.length;
+    }
+
+    private static long usedHeapAfterGc(){
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++){
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,127 @@
+package decoratorpattern;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import decoratorpattern.CoffeeDecoratorPattern.Beverage;
+
+/**
+ * Prices of the base beverages and add-ons, to price {@link PackedBeverage}s without building
+ * decorator chains.
+ *
+ * Loaded once at startup, from a properties file or from the decorators' own getCost().
+ * Pricing is table lookups and multiply-adds, with no allocation and only a range check of
+ * the base beverage, so a bulk of orders is priced in a tight loop over a long[]. Orders that
+ * {@link PackedBeverage#tryEncode} returned {@link PackedBeverage#UNKNOWN} for have no price,
+ * they must be left out of the bulk.
+ */
+final class PriceTable {
+
+    private static final String BASE_PREFIX = "base.";
+
+    private static final String ADD_ON_PREFIX = "addon.";
+
+    // indexed by ordinal
+    private final float[] basePrices;
+
+    private final float[] addOnPrices;
+
+    private PriceTable(float[] basePrices, float[] addOnPrices){
+        this.basePrices = basePrices;
+        this.addOnPrices = addOnPrices;
+    }
+
+    /**
+     * @return the prices that the decorator classes charge
+     */
+    static PriceTable fromDecorators(){
+        float[] basePrices = new float[BaseBeverage.count()];
+        for (BaseBeverage base : BaseBeverage.values()){
+            basePrices[base.ordinal()] = base.create().getCost();
+        }
+        float[] addOnPrices = new float[AddOn.count()];
+        Beverage espresso = BaseBeverage.ESPRESSO.create();
+        for (AddOn addOn : AddOn.values()){
+            addOnPrices[addOn.ordinal()] = addOn.wrap(espresso).getCost() - espresso.getCost();
+        }
+        return new PriceTable(basePrices, addOnPrices);
+    }
+
+    /**
+     * Reads prices like "base.ESPRESSO=50" and "addon.WHIPPED_CREAM=25".
+     * Every base beverage and add-on must have a price.
+     */
+    static PriceTable load(Path path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(path)){
+            properties.load(reader);
+        }
+        float[] basePrices = new float[BaseBeverage.count()];
+        for (BaseBeverage base : BaseBeverage.values()){
+            basePrices[base.ordinal()] = price(properties, BASE_PREFIX + base.name(), path);
+        }
+        float[] addOnPrices = new float[AddOn.count()];
+        for (AddOn addOn : AddOn.values()){
+            addOnPrices[addOn.ordinal()] = price(properties, ADD_ON_PREFIX + addOn.name(), path);
+        }
+        return new PriceTable(basePrices, addOnPrices);
+    }
+
+    float price(BaseBeverage base){
+        return basePrices[base.ordinal()];
+    }
+
+    float price(AddOn addOn){
+        return addOnPrices[addOn.ordinal()];
+    }
+
+    /**
+     * @param beverage see {@link PackedBeverage}
+     * @throws IllegalArgumentException if the long is not a packed beverage, e.g. {@link PackedBeverage#UNKNOWN}
+     */
+    float price(long beverage){
+        float cost = basePrices[PackedBeverage.baseOrdinal(beverage)];
+        long counts = beverage >>> PackedBeverage.BASE_BITS;
+        for (int i = 0; i < addOnPrices.length; i++){
+            cost += (counts & PackedBeverage.MAX_COUNT) * addOnPrices[i];
+            counts >>>= PackedBeverage.COUNT_BITS;
+        }
+        return cost;
+    }
+
+    /**
+     * Prices every order into costs, at the same index.
+     * @throws IllegalArgumentException if an order is not a packed beverage, e.g. {@link PackedBeverage#UNKNOWN}
+     */
+    void price(long[] orders, float[] costs){
+        if (costs.length < orders.length){
+            throw new IllegalArgumentException("costs is shorter than orders : " + costs.length);
+        }
+        for (int i = 0; i < orders.length; i++){
+            costs[i] = price(orders[i]);
+        }
+    }
+
+    /**
+     * @return the sum of the prices of the orders, summed in double so that millions of them stay exact
+     * @throws IllegalArgumentException if an order is not a packed beverage, e.g. {@link PackedBeverage#UNKNOWN}
+     */
+    double total(long[] orders){
+        double total = 0;
+        for (long order : orders){
+            total += price(order);
+        }
+        return total;
+    }
+
+    private static float price(Properties properties, String key, Path path){
+        String price = properties.getProperty(key);
+        if (price == null){
+            throw new IllegalArgumentException("No " + key + " in " + path);
+        }
+        return Float.parseFloat(price.trim());
+    }
+}
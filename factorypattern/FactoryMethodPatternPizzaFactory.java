@@ -16,41 +16,86 @@ public class FactoryMethodPatternPizzaFactory {
     /**
      * Abstract class for the product that the factory will create.
      */
-    private static abstract class Pizza {
+    static abstract class Pizza {
 
         String name;
+
+        int slices;
+
+        boolean boxed;
+
+        /**
+         * Back to the state of a new pizza, so that a pool can hand it out again.
+         */
+        void reset(){
+            slices = 0;
+            boxed = false;
+        }
     }
 
     /**
      * Abstract class that will have the abstracted factory method and other
      * method implementations.
      */
-    private static abstract class PizzaStore {
+    static abstract class PizzaStore {
 
         String pizzaStoreName;
 
+        // false to serve orders without printing, for benchmarks
+        boolean verbose = true;
+
+        /**
+         * @throws IllegalArgumentException if the type is unknown or this store doesn't make it
+         */
         public void orderPizza(String type){
+            orderPizza(PizzaType.valueOf(type));
+        }
+
+        public void orderPizza(PizzaType type){
             Pizza pizza = createPizza(type);
             cutSliced(pizza);
             boxPizza(pizza);
-            System.out.println(pizza.name + " Delivered!");
+            deliver(pizza);
+        }
+
+        // the steps of an order, a PizzaPipeline runs them on different threads
+
+        protected void boxPizza(Pizza pizza){
+            pizza.boxed = true;
+            if (verbose){
+                System.out.println("Pizza boxed!");
+            }
+        }
+
+        protected void cutSliced(Pizza pizza){
+            pizza.slices = 8;
+            if (verbose){
+                System.out.println("Pizza sliced!");
+            }
         }
 
-        private void boxPizza(Pizza pizza){
-            System.out.println("Pizza boxed!");
+        protected void deliver(Pizza pizza){
+            if (verbose){
+                System.out.println(pizza.name + " Delivered!");
+            }
+            release(pizza);
         }
 
-        private void cutSliced(Pizza pizza){
-            System.out.println("Pizza sliced!");
+        /**
+         * Called once the pizza is delivered and the store is done with it.
+         * A store that reuses its pizzas takes it back here.
+         */
+        protected void release(Pizza pizza){
         }
 
         /**
          * This is the factory method that the sub classes has to implement.
          * Subclasses will implement this method and will create the concrete instance of Pizza.
-         * @param type String to tell the type of pizza
+         * @param type to tell the type of pizza
          * @return Pizza that we just created!
+         * @throws IllegalArgumentException if this store doesn't make that type
          */
-        protected abstract Pizza createPizza(String type);
+        protected abstract Pizza createPizza(PizzaType type);
     }
 
     /**
@@ -58,58 +103,42 @@ public class FactoryMethodPatternPizzaFactory {
      * Note how the subclasses are creating the Pizza instance and not the super class.
      * In fact, super class is abstract.
      */
-    private static class DominosPizzaStore extends PizzaStore {
+    static class DominosPizzaStore extends PizzaStore {
+
+        // the pizzas of this store, by type
+        private final PizzaRegistry registry;
 
         DominosPizzaStore(){
             pizzaStoreName = "Dominos Pizza Store";
+            registry = new PizzaRegistry(pizzaStoreName)
+                    .register(PizzaType.CHEESE, DominosCheesePizza::new)
+                    .register(PizzaType.PAN, DominosPanPizza::new);
         }
 
         @Override
-        public Pizza createPizza(String type) {
-
-            Pizza pizza;
-
-            switch (type){
-                case "cheese":
-                    pizza = new DominosCheesePizza();
-                    break;
-                case "pan":
-                    pizza = new DominosPanPizza();
-                    break;
-                default:
-                    pizza = new DominosPanPizza();
-            }
-
-            return pizza;
+        public Pizza createPizza(PizzaType type) {
+            return registry.create(type);
         }
     }
 
     /**
      * Pizza store implementation #2
      */
-    private static class PizzaHutPizzaStore extends PizzaStore {
+    static class PizzaHutPizzaStore extends PizzaStore {
+
+        // the pizzas of this store, by type
+        private final PizzaRegistry registry;
 
         PizzaHutPizzaStore(){
             pizzaStoreName = "Pizza Hut Pizza Store";
+            registry = new PizzaRegistry(pizzaStoreName)
+                    .register(PizzaType.CHEESE, PizzaHutCheesePizza::new)
+                    .register(PizzaType.PAN, PizzaHutPanPizza::new);
         }
 
         @Override
-        public Pizza createPizza(String type) {
-
-            Pizza pizza;
-
-            switch (type){
-                case "cheese":
-                    pizza = new PizzaHutCheesePizza();
-                    break;
-                case "pan":
-                    pizza = new PizzaHutPanPizza();
-                    break;
-                default:
-                    pizza = new PizzaHutPanPizza();
-            }
-
-            return pizza;
+        public Pizza createPizza(PizzaType type) {
+            return registry.create(type);
         }
     }
 
@@ -117,7 +146,7 @@ public class FactoryMethodPatternPizzaFactory {
      * Concrete product #1
      * All pizza implementation extend Pizza as to provide a common type.
      */
-    private static class DominosCheesePizza extends Pizza{
+    static class DominosCheesePizza extends Pizza{
 
         DominosCheesePizza(){
             name = "Dominos cheese pizza";
@@ -127,7 +156,7 @@ public class FactoryMethodPatternPizzaFactory {
     /**
      * Concrete pizza #2
      */
-    private static class DominosPanPizza extends Pizza {
+    static class DominosPanPizza extends Pizza {
 
         DominosPanPizza(){
             name = "Dominos Pan Pizza";
@@ -137,7 +166,7 @@ public class FactoryMethodPatternPizzaFactory {
     /**
      * Concrete product #3
      */
-    private static class PizzaHutCheesePizza extends Pizza {
+    static class PizzaHutCheesePizza extends Pizza {
 
         PizzaHutCheesePizza(){
             name = "Pizza Hut Cheese Pizza";
@@ -147,19 +176,47 @@ public class FactoryMethodPatternPizzaFactory {
     /**
      * Concrete pizza #4
      */
-    private static class PizzaHutPanPizza extends Pizza {
+    static class PizzaHutPanPizza extends Pizza {
 
         PizzaHutPanPizza(){
             name = "Pizza hut pan pizza";
         }
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
         PizzaStore pizzaStore = new DominosPizzaStore();
         pizzaStore.orderPizza("cheese");
 
         pizzaStore = new PizzaHutPizzaStore();
         pizzaStore.orderPizza("pan");
+
+        // a type no store makes is reported, not replaced with another pizza
+        try {
+            pizzaStore.orderPizza("hawaiian");
+        } catch (IllegalArgumentException e){
+            System.out.println(e.getMessage());
+        }
+
+        // a pooled store reuses delivered pizzas instead of creating one per order
+        PooledPizzaStore pooledStore = new PooledPizzaStore(new DominosPizzaStore(), PizzaPool.Mode.STRIPED, 16);
+        pooledStore.orderPizza("cheese");
+        pooledStore.orderPizza("cheese");
+        System.out.println(pooledStore.getPool());
+
+        // or every step of the orders runs on its own threads, with bounded queues in between
+        PizzaStore pipelinedStore = new PizzaHutPizzaStore();
+        pipelinedStore.verbose = false;
+        PizzaPipeline pipeline = new PizzaPipeline(pipelinedStore, 16, 4)
+                .workers(PizzaPipeline.Step.BOX, 2)
+                .start();
+        for (int i = 0; i < 10; i++){
+            pipeline.submit(i % 2 == 0 ? PizzaType.CHEESE : PizzaType.PAN);
+        }
+        pipeline.close();
+        System.out.println(pipeline.delivered() + " pizzas delivered by the pipeline");
+        for (PizzaPipeline.StageStats stats : pipeline.stats()){
+            System.out.println(stats);
+        }
     }
 
 }
@@ -0,0 +1,438 @@
+package factorypattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.Pizza;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaStore;
+
+/**
+ * Runs the orders of a store as a pipeline : create, slice, box and deliver are stages with
+ * their own worker threads, and a bounded queue in front of each.
+ *
+ * A worker takes a batch of up to batchSize items from its queue, runs its step on all of
+ * them, and hands them to the next queue. A full queue blocks the stage that feeds it, and so
+ * on up to {@link #submit(PizzaType)}, so a slow stage slows down the orders instead of piling
+ * them up. {@link #stats()} shows the depth of every queue and the service time of every
+ * stage : the bottleneck is the stage with a full queue, give it more workers.
+ *
+ * Orders that fail, like a type the store doesn't make, are counted as failed by their stage.
+ * Orders that a stage never gets to run, because the worker that holds them gets interrupted
+ * or because they are still queued when the stage stops, are counted as dropped. The last worker of a stage to
+ * stop tells the next stage to stop, so {@link #close()} never waits on a dead stage.
+ * Several pipelines, for several stores, can run side by side, each with its own threads.
+ */
+class PizzaPipeline implements AutoCloseable {
+
+    enum Step {
+        CREATE,
+        SLICE,
+        BOX,
+        DELIVER
+    }
+
+    // sent down the pipeline on close, after the last order
+    private static final Object STOP = new Object();
+
+    // how often a blocked hand off checks that the stage it waits on still has workers
+    private static final long HAND_OFF_POLL_MILLIS = 10;
+
+    private final PizzaStore store;
+
+    private final int queueCapacity;
+
+    private final int batchSize;
+
+    private final int[] workers = new int[Step.values().length];
+
+    private volatile Stage[] stages;
+
+    // submits hold the read lock, close the write lock, so no order gets behind the STOP markers
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+
+    private boolean closed;
+
+    private volatile long startNanos;
+
+    /**
+     * @param queueCapacity items waiting in front of each stage, before the stage that feeds it blocks
+     * @param batchSize items a worker takes from its queue at once
+     */
+    PizzaPipeline(PizzaStore store, int queueCapacity, int batchSize){
+        if (queueCapacity < 1 || batchSize < 1){
+            throw new IllegalArgumentException("queueCapacity and batchSize must be positive : "
+                    + queueCapacity + ", " + batchSize);
+        }
+        this.store = store;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        Arrays.fill(workers, 1);
+    }
+
+    /**
+     * Sets the number of worker threads of a step, 1 by default. Only before {@link #start()}.
+     */
+    synchronized PizzaPipeline workers(Step step, int count){
+        if (stages != null){
+            throw new IllegalStateException("Pipeline of " + store.pizzaStoreName + " is already started");
+        }
+        if (count < 1){
+            throw new IllegalArgumentException("count must be positive : " + count);
+        }
+        workers[step.ordinal()] = count;
+        return this;
+    }
+
+    synchronized PizzaPipeline start(){
+        if (stages != null || closed){
+            throw new IllegalStateException("Pipeline of " + store.pizzaStoreName + " is already started");
+        }
+        Step[] steps = Step.values();
+        Stage[] newStages = new Stage[steps.length];
+        for (int i = steps.length - 1; i >= 0; i--){
+            newStages[i] = new Stage(steps[i], workers[i], i + 1 < steps.length ? newStages[i + 1] : null);
+        }
+        startNanos = System.nanoTime();
+        stages = newStages;
+        for (Stage stage : newStages){
+            stage.start();
+        }
+        return this;
+    }
+
+    /**
+     * Takes an order, blocking while the pipeline is full.
+     *
+     * @throws IllegalStateException if the pipeline is not started, closed, or if its create
+     * workers were interrupted
+     */
+    void submit(PizzaType type) throws InterruptedException {
+        if (!submit(type, Long.MAX_VALUE, TimeUnit.NANOSECONDS)){
+            throw new IllegalStateException("Pipeline of " + store.pizzaStoreName + " is not running");
+        }
+    }
+
+    /**
+     * @return false if the pipeline stayed full for the whole timeout, or has no create workers left
+     * @throws IllegalStateException if the pipeline is not started or closed
+     */
+    boolean submit(PizzaType type, long timeout, TimeUnit unit) throws InterruptedException {
+        gate.readLock().lockInterruptibly();
+        try {
+            Stage[] stages = this.stages;
+            if (stages == null || closed){
+                throw new IllegalStateException("Pipeline of " + store.pizzaStoreName + " is not running");
+            }
+            return handOff(stages[0], type, unit.toNanos(timeout));
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of pizzas that went through the deliver stage
+     */
+    long delivered(){
+        Stage[] stages = this.stages;
+        return stages == null ? 0 : stages[stages.length - 1].processed.sum();
+    }
+
+    /**
+     * @return a snapshot of every stage, in pipeline order
+     */
+    List<StageStats> stats(){
+        Stage[] stages = this.stages;
+        List<StageStats> stats = new ArrayList<>();
+        if (stages != null){
+            long elapsedNanos = System.nanoTime() - startNanos;
+            for (Stage stage : stages){
+                stats.add(stage.stats(elapsedNanos));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Serves the orders already submitted, then stops the workers. Waits for submits in
+     * progress to get their order in first.
+     *
+     * If the calling thread is interrupted, it stops waiting and keeps its interrupt status,
+     * the workers still serve the orders and stop.
+     */
+    @Override
+    public void close() {
+        Stage[] stages;
+        // no interrupt check, submits only hold the lock until their order is in
+        gate.writeLock().lock();
+        try {
+            synchronized (this){
+                if (closed){
+                    return;
+                }
+                closed = true;
+                stages = this.stages;
+            }
+        } finally {
+            gate.writeLock().unlock();
+        }
+        if (stages == null){
+            return;
+        }
+        stages[0].stop();
+        try {
+            for (Stage stage : stages){
+                for (Thread thread : stage.threads){
+                    thread.join();
+                }
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts the item in the stage's queue, waiting while it is full.
+     *
+     * @param timeoutNanos Long.MAX_VALUE to wait as long as the stage has workers
+     * @return false after the timeout, or if the stage has no worker left to take it
+     */
+    private static boolean handOff(Stage stage, Object item, long timeoutNanos) throws InterruptedException {
+        long pollNanos = TimeUnit.MILLISECONDS.toNanos(HAND_OFF_POLL_MILLIS);
+        long start = System.nanoTime();
+        while (stage.running.get() > 0){
+            long leftNanos = timeoutNanos == Long.MAX_VALUE ? pollNanos : timeoutNanos - (System.nanoTime() - start);
+            if (stage.input.offer(item, Math.max(0, Math.min(leftNanos, pollNanos)), TimeUnit.NANOSECONDS)){
+                return true;
+            }
+            if (leftNanos <= pollNanos && timeoutNanos != Long.MAX_VALUE){
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private Object run(Step step, Object item){
+        switch (step){
+            case CREATE:
+                return store.createPizza((PizzaType) item);
+            case SLICE:
+                store.cutSliced((Pizza) item);
+                return item;
+            case BOX:
+                store.boxPizza((Pizza) item);
+                return item;
+            default:
+                store.deliver((Pizza) item);
+                return item;
+        }
+    }
+
+    /**
+     * One step, its input queue and its workers.
+     */
+    private final class Stage {
+
+        final Step step;
+
+        final BlockingQueue<Object> input = new ArrayBlockingQueue<>(queueCapacity);
+
+        final Thread[] threads;
+
+        // null for the last stage
+        final Stage next;
+
+        // workers still running, the last one to stop stops the next stage
+        final AtomicInteger running;
+
+        final LongAdder processed = new LongAdder();
+
+        final LongAdder failed = new LongAdder();
+
+        // items that never ran on this stage
+        final LongAdder dropped = new LongAdder();
+
+        final LongAdder batches = new LongAdder();
+
+        final LongAdder busyNanos = new LongAdder();
+
+        Stage(Step step, int workers, Stage next){
+            this.step = step;
+            this.next = next;
+            this.threads = new Thread[workers];
+            this.running = new AtomicInteger(workers);
+            for (int i = 0; i < workers; i++){
+                threads[i] = new Thread(this::work, store.pizzaStoreName + " " + step + " #" + i);
+                threads[i].setDaemon(true);
+            }
+        }
+
+        void start(){
+            for (Thread thread : threads){
+                thread.start();
+            }
+        }
+
+        /**
+         * Tells every worker to stop once the items queued before are done. Not interruptible,
+         * so that a stop is never half sent.
+         */
+        void stop(){
+            boolean interrupted = false;
+            int sent = 0;
+            while (sent < threads.length){
+                try {
+                    if (!handOff(this, STOP, Long.MAX_VALUE)){
+                        // no worker left, nobody to stop
+                        break;
+                    }
+                    sent++;
+                } catch (InterruptedException e){
+                    interrupted = true;
+                }
+            }
+            if (interrupted){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void work(){
+            List<Object> batch = new ArrayList<>(batchSize);
+            boolean stopping = false;
+            try {
+                while (!stopping){
+                    Object item = input.take();
+                    while (item != STOP){
+                        batch.add(item);
+                        if (batch.size() == batchSize || (item = input.poll()) == null){
+                            break;
+                        }
+                    }
+                    stopping = item == STOP;
+                    if (!batch.isEmpty()){
+                        runBatch(batch);
+                    }
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            } finally {
+                if (running.decrementAndGet() == 0){
+                    // nobody takes what is left in the queue any more
+                    for (Object item = input.poll(); item != null; item = input.poll()){
+                        if (item != STOP){
+                            dropped.increment();
+                        }
+                    }
+                    if (next != null){
+                        next.stop();
+                    }
+                }
+            }
+        }
+
+        private void runBatch(List<Object> batch) throws InterruptedException {
+            long start = System.nanoTime();
+            int done = 0;
+            for (int i = 0; i < batch.size(); i++){
+                try {
+                    batch.set(done, run(step, batch.get(i)));
+                    done++;
+                } catch (RuntimeException e){
+                    failed.increment();
+                }
+            }
+            busyNanos.add(System.nanoTime() - start);
+            processed.add(done);
+            batches.increment();
+            int handedOff = 0;
+            try {
+                while (next != null && handedOff < done){
+                    if (!handOff(next, batch.get(handedOff), Long.MAX_VALUE)){
+                        break;
+                    }
+                    handedOff++;
+                }
+            } finally {
+                // items the next stage never got, because it is gone or we were interrupted
+                if (next != null){
+                    next.dropped.add(done - handedOff);
+                }
+                batch.clear();
+            }
+        }
+
+        StageStats stats(long elapsedNanos){
+            return new StageStats(step, threads.length, input.size(), queueCapacity,
+                    processed.sum(), failed.sum(), dropped.sum(), batches.sum(), busyNanos.sum(), elapsedNanos);
+        }
+    }
+
+    /**
+     * Load of one stage since the pipeline started.
+     */
+    static class StageStats {
+
+        final Step step;
+        final int workers;
+        final int queueDepth;
+        final int queueCapacity;
+        final long processed;
+        // ran and threw
+        final long failed;
+        // never ran on this stage
+        final long dropped;
+        final long batches;
+        final long busyNanos;
+        final long elapsedNanos;
+
+        StageStats(Step step, int workers, int queueDepth, int queueCapacity, long processed, long failed,
+                   long dropped, long batches, long busyNanos, long elapsedNanos){
+            this.step = step;
+            this.workers = workers;
+            this.queueDepth = queueDepth;
+            this.queueCapacity = queueCapacity;
+            this.processed = processed;
+            this.failed = failed;
+            this.dropped = dropped;
+            this.batches = batches;
+            this.busyNanos = busyNanos;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return mean time a worker spends on one pizza, over the pizzas the stage ran
+         */
+        double serviceNanos(){
+            long ran = ran();
+            return ran == 0 ? 0 : (double) busyNanos / ran;
+        }
+
+        /**
+         * @return pizzas the step was run on, whether it succeeded or failed. Dropped ones are not
+         */
+        long ran(){
+            return processed + failed;
+        }
+
+        /**
+         * @return share of the time the workers of the stage were busy, 1 when they all always were
+         */
+        double utilization(){
+            return elapsedNanos == 0 ? 0 : (double) busyNanos / ((double) elapsedNanos * workers);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-7s : workers=%d queue=%d/%d processed=%d failed=%d dropped=%d batch=%.1f service=%.0f ns"
+                    + " busy=%.0f%%", step, workers, queueDepth, queueCapacity, processed, failed, dropped,
+                    batches == 0 ? 0 : (double) ran() / batches, serviceNanos(), utilization() * 100);
+        }
+    }
+}
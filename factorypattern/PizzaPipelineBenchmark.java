@@ -0,0 +1,104 @@
+package factorypattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.DominosPizzaStore;
+import factorypattern.FactoryMethodPatternPizzaFactory.Pizza;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaHutPizzaStore;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaStore;
+
+/**
+ * Serves orders of a few stores whose boxing step waits on a slow machine, one order at a time
+ * with orderPizza(), then with a {@link PizzaPipeline} per store, with 1 and then 4 box workers.
+ *
+ * Prints pizzas per second and, for the pipelines, the stage stats sampled half way : the
+ * box queue is full and the stages before it wait on it, until it gets more workers.
+ *
+ * Usage : PizzaPipelineBenchmark [orders per store] [stores] [box micros]
+ */
+public class PizzaPipelineBenchmark {
+
+    private static final PizzaType[] TYPES = {PizzaType.CHEESE, PizzaType.PAN};
+
+    public static void main(String[] args) throws InterruptedException {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int storeCount = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long boxNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 2 ? Long.parseLong(args[2]) : 100);
+
+        System.out.println(String.format("%d stores x %d orders, boxing takes %d us",
+                storeCount, orders, TimeUnit.NANOSECONDS.toMicros(boxNanos)));
+
+        PizzaStore store = slowBoxStore(0, boxNanos);
+        long start = System.nanoTime();
+        for (int i = 0; i < orders; i++){
+            store.orderPizza(TYPES[i & 1]);
+        }
+        System.out.println(String.format("orderPizza, one store     : %7.0f pizzas/s",
+                orders * 1e9 / (System.nanoTime() - start)));
+
+        for (int boxWorkers : new int[]{1, 4}){
+            List<PizzaPipeline> pipelines = new ArrayList<>();
+            for (int s = 0; s < storeCount; s++){
+                pipelines.add(new PizzaPipeline(slowBoxStore(s, boxNanos), 256, 16)
+                        .workers(PizzaPipeline.Step.BOX, boxWorkers)
+                        .start());
+            }
+            List<Thread> submitters = new ArrayList<>();
+            for (PizzaPipeline pipeline : pipelines){
+                Thread submitter = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < orders; i++){
+                            pipeline.submit(TYPES[i & 1]);
+                        }
+                    } catch (InterruptedException e){
+                        Thread.currentThread().interrupt();
+                    }
+                });
+                submitters.add(submitter);
+            }
+            start = System.nanoTime();
+            for (Thread submitter : submitters){
+                submitter.start();
+            }
+            while (pipelines.get(0).delivered() < orders / 2){
+                Thread.sleep(1);
+            }
+            List<PizzaPipeline.StageStats> halfWay = pipelines.get(0).stats();
+            for (Thread submitter : submitters){
+                submitter.join();
+            }
+            long delivered = 0;
+            for (PizzaPipeline pipeline : pipelines){
+                pipeline.close();
+                delivered += pipeline.delivered();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("pipelines, %d box worker%s : %7.0f pizzas/s, first store half way :",
+                    boxWorkers, boxWorkers == 1 ? " " : "s", delivered * 1e9 / elapsed));
+            for (PizzaPipeline.StageStats stats : halfWay){
+                System.out.println("    " + stats);
+            }
+        }
+    }
+
+    private static PizzaStore slowBoxStore(int index, long boxNanos){
+        PizzaStore store = (index & 1) == 0 ? new DominosPizzaStore() {
+            @Override
+            protected void boxPizza(Pizza pizza) {
+                LockSupport.parkNanos(boxNanos);
+                super.boxPizza(pizza);
+            }
+        } : new PizzaHutPizzaStore() {
+            @Override
+            protected void boxPizza(Pizza pizza) {
+                LockSupport.parkNanos(boxNanos);
+                super.boxPizza(pizza);
+            }
+        };
+        store.verbose = false;
+        return store;
+    }
+}
@@ -0,0 +1,433 @@
+package factorypattern;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.Pizza;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaStore;
+
+/**
+ * Keeps delivered pizzas to hand them out again, instead of creating a new one per order.
+ *
+ * There is a pool per pizza type, split in stripes so that threads don't all contend on one
+ * lock. In {@link Mode#STRIPED} a thread uses the stripe of its id, in {@link Mode#THREAD_LOCAL}
+ * every thread has its own stripe and takes no lock. A released pizza is reset and goes back
+ * to the stripe it was acquired from, even when another thread releases it, like the deliver
+ * stage of a {@link PizzaPipeline}. A thread local stripe takes pizzas released by other
+ * threads in a separate locked stack, that its thread moves over when it runs out. A full
+ * stripe drops the pizza. Thread local stripes stay with the pool when their thread ends, so
+ * that mode is for a fixed set of threads.
+ *
+ * The pool keeps what it knows of each pizza it created in its own identity map, pizzas
+ * carry no pool state. The map only holds weak references to the pizzas, so a pizza that was
+ * acquired and is garbage collected without being released is counted in {@link #leaked()}.
+ * Releasing a pizza twice, even one that a full stripe dropped, or one the pool did not
+ * create, throws.
+ */
+class PizzaPool {
+
+    enum Mode {
+        STRIPED,
+        THREAD_LOCAL
+    }
+
+    private static final int IN_USE = 0;
+
+    private static final int IN_POOL = 1;
+
+    // released to a full stripe, the pool doesn't hand it out again
+    private static final int DROPPED = 2;
+
+    private static final ThreadLocal<PizzaKey> LOOKUP_KEY = ThreadLocal.withInitial(PizzaKey::new);
+
+    private final PizzaStore factory;
+
+    private final Mode mode;
+
+    private final int capacityPerStripe;
+
+    private final int stripeMask;
+
+    // indexed by PizzaType id, grown under the pool's lock when a new type is ordered
+    private volatile TypePool[] types = new TypePool[0];
+
+    // created pizzas that are garbage collected show up here
+    private final ReferenceQueue<Pizza> collected = new ReferenceQueue<>();
+
+    // trackers by pizza identity, each tracker is its own key. Also keeps them reachable,
+    // a reference is only enqueued if it is still reachable itself
+    private final ConcurrentHashMap<Object, Tracker> trackers = new ConcurrentHashMap<>();
+
+    // every stripe of every type, for the stats
+    private final Queue<Stripe> allStripes = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder created = new LongAdder();
+
+    private final LongAdder leaked = new LongAdder();
+
+    /**
+     * @param factory the store whose createPizza() makes the pizzas the pool doesn't have
+     * @param capacityPerStripe pizzas kept per type and stripe
+     */
+    PizzaPool(PizzaStore factory, Mode mode, int capacityPerStripe){
+        if (capacityPerStripe < 1){
+            throw new IllegalArgumentException("capacityPerStripe must be positive : " + capacityPerStripe);
+        }
+        this.factory = factory;
+        this.mode = mode;
+        this.capacityPerStripe = capacityPerStripe;
+        // a few stripes per core, so that two threads rarely share one
+        this.stripeMask = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) * 2 - 1;
+    }
+
+    /**
+     * @return a pizza of the type, fresh from the factory or reset from an earlier order
+     */
+    Pizza acquire(PizzaType type){
+        TypePool[] types = this.types;
+        TypePool typePool = type.id < types.length ? types[type.id] : null;
+        if (typePool == null){
+            typePool = newTypePool(type);
+        }
+        Stripe stripe = typePool.stripe();
+        Tracker tracker = typePool.pop(stripe);
+        if (tracker != null){
+            Pizza pizza = tracker.pooled;
+            tracker.pooled = null;
+            tracker.home = stripe;
+            tracker.state = IN_USE;
+            return pizza;
+        }
+        expungeCollected();
+        Pizza pizza = factory.createPizza(type);
+        tracker = new Tracker(pizza, typePool, collected);
+        tracker.home = stripe;
+        trackers.put(tracker, tracker);
+        created.increment();
+        return pizza;
+    }
+
+    /**
+     * Takes the pizza back. The caller must not use it any more.
+     *
+     * @throws IllegalArgumentException if the pizza doesn't come from this pool
+     * @throws IllegalStateException if the pizza was already released
+     */
+    void release(Pizza pizza){
+        Tracker tracker = trackerOf(pizza);
+        if (tracker == null){
+            throw new IllegalArgumentException(pizza.name + " doesn't come from this pool");
+        }
+        if (!Tracker.STATE.compareAndSet(tracker, IN_USE, IN_POOL)){
+            throw new IllegalStateException(pizza.name + " was released twice");
+        }
+        pizza.reset();
+        tracker.pooled = pizza;
+        if (!tracker.typePool.push(tracker.home, tracker)){
+            // stays in the map until it is collected, so that a second release is still caught
+            tracker.pooled = null;
+            tracker.state = DROPPED;
+        }
+    }
+
+    /**
+     * @return number of pizzas acquired and not released yet. Stripe counters are read
+     * without locking, so this is approximate while orders are served
+     */
+    long outstanding(){
+        long released = 0;
+        for (Stripe stripe : allStripes){
+            released += stripe.pushed + stripe.dropped + stripe.returnedPushed + stripe.returnedDropped;
+        }
+        return reused() + created() - released;
+    }
+
+    /**
+     * @return number of pizzas garbage collected without being released
+     */
+    long leaked(){
+        expungeCollected();
+        return leaked.sum();
+    }
+
+    long created(){
+        return created.sum();
+    }
+
+    long reused(){
+        long reused = 0;
+        for (Stripe stripe : allStripes){
+            reused += stripe.popped;
+        }
+        return reused;
+    }
+
+    long dropped(){
+        long dropped = 0;
+        for (Stripe stripe : allStripes){
+            dropped += stripe.dropped + stripe.returnedDropped;
+        }
+        return dropped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s pool of %s : %d reused, %d created, %d dropped, %d outstanding, %d leaked",
+                mode, factory.pizzaStoreName, reused(), created(), dropped(), outstanding(), leaked());
+    }
+
+    private synchronized TypePool newTypePool(PizzaType type){
+        if (type.id < types.length && types[type.id] != null){
+            return types[type.id];
+        }
+        TypePool[] newTypes = Arrays.copyOf(types, Math.max(types.length, type.id + 1));
+        newTypes[type.id] = new TypePool(type);
+        types = newTypes;
+        return newTypes[type.id];
+    }
+
+    private Tracker trackerOf(Pizza pizza){
+        PizzaKey key = LOOKUP_KEY.get();
+        key.pizza = pizza;
+        try {
+            return trackers.get(key);
+        } finally {
+            // don't keep the pizza from being collected
+            key.pizza = null;
+        }
+    }
+
+    private void expungeCollected(){
+        for (Reference<? extends Pizza> reference = collected.poll(); reference != null; reference = collected.poll()){
+            Tracker tracker = (Tracker) reference;
+            trackers.remove(tracker);
+            if (tracker.state == IN_USE){
+                leaked.increment();
+            }
+        }
+    }
+
+    /**
+     * What the pool knows of a pizza it created, and its key in the identity map.
+     * A cleared tracker is only equal to itself, so it can still be removed.
+     */
+    static final class Tracker extends WeakReference<Pizza> {
+
+        static final AtomicIntegerFieldUpdater<Tracker> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Tracker.class, "state");
+
+        final TypePool typePool;
+
+        private final int hash;
+
+        // the stripe it was acquired from and goes back to. Written by the acquiring thread,
+        // read by the releasing one, after the pizza was handed over between them
+        Stripe home;
+
+        // the pizza while it waits in a stripe, which keeps it from being collected
+        Pizza pooled;
+
+        volatile int state = IN_USE;
+
+        Tracker(Pizza pizza, TypePool typePool, ReferenceQueue<Pizza> queue){
+            super(pizza, queue);
+            this.typePool = typePool;
+            this.hash = System.identityHashCode(pizza);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this){
+                return true;
+            }
+            Pizza pizza = get();
+            return pizza != null && other instanceof Tracker && ((Tracker) other).get() == pizza;
+        }
+    }
+
+    /**
+     * Probe for tracker lookups, one per thread so that releases allocate nothing.
+     */
+    private static final class PizzaKey {
+
+        Pizza pizza;
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(pizza);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Tracker && ((Tracker) other).get() == pizza;
+        }
+    }
+
+    /**
+     * The pizzas of one type.
+     */
+    final class TypePool {
+
+        final PizzaType type;
+
+        private final Stripe[] stripes;
+
+        private final ThreadLocal<Stripe> localStripe;
+
+        TypePool(PizzaType type){
+            this.type = type;
+            if (mode == Mode.THREAD_LOCAL){
+                stripes = null;
+                localStripe = ThreadLocal.withInitial(this::newStripe);
+            } else {
+                stripes = new Stripe[stripeMask + 1];
+                for (int i = 0; i < stripes.length; i++){
+                    stripes[i] = newStripe();
+                }
+                localStripe = null;
+            }
+        }
+
+        /**
+         * @return the stripe of the current thread
+         */
+        Stripe stripe(){
+            if (localStripe != null){
+                return localStripe.get();
+            }
+            return stripes[(int) Thread.currentThread().getId() & stripeMask];
+        }
+
+        // the stack of a thread local stripe is only used by its thread, it needs no lock
+
+        Tracker pop(Stripe stripe){
+            if (localStripe != null){
+                Tracker tracker = stripe.pop();
+                if (tracker == null && stripe.takeReturned()){
+                    tracker = stripe.pop();
+                }
+                return tracker;
+            }
+            synchronized (stripe){
+                return stripe.pop();
+            }
+        }
+
+        boolean push(Stripe stripe, Tracker tracker){
+            if (localStripe != null){
+                return stripe.owner == Thread.currentThread() ? stripe.push(tracker) : stripe.pushReturned(tracker);
+            }
+            synchronized (stripe){
+                return stripe.push(tracker);
+            }
+        }
+
+        private Stripe newStripe(){
+            Stripe stripe = new Stripe(capacityPerStripe, mode == Mode.THREAD_LOCAL ? Thread.currentThread() : null);
+            allStripes.add(stripe);
+            return stripe;
+        }
+    }
+
+    /**
+     * A bounded stack of pooled pizzas, by their trackers, not thread safe. Stacks reuse the pizza released last, the
+     * one most likely still in the CPU cache.
+     *
+     * A thread local stripe also has a stack of pizzas released by other threads, behind a lock.
+     */
+    static final class Stripe {
+
+        // null for a striped stripe
+        final Thread owner;
+
+        private final Tracker[] pizzas;
+
+        private int size;
+
+        private final Tracker[] returned;
+
+        private int returnedSize;
+
+        // only written by the thread that holds the stripe, others read them for the stats
+        long popped;
+
+        long pushed;
+
+        long dropped;
+
+        // written under the returned lock
+        long returnedPushed;
+
+        long returnedDropped;
+
+        Stripe(int capacity, Thread owner){
+            this.owner = owner;
+            pizzas = new Tracker[capacity];
+            returned = owner != null ? new Tracker[capacity] : null;
+        }
+
+        Tracker pop(){
+            if (size == 0){
+                return null;
+            }
+            Tracker tracker = pizzas[--size];
+            pizzas[size] = null;
+            popped++;
+            return tracker;
+        }
+
+        boolean push(Tracker tracker){
+            if (size == pizzas.length){
+                dropped++;
+                return false;
+            }
+            pizzas[size++] = tracker;
+            pushed++;
+            return true;
+        }
+
+        boolean pushReturned(Tracker tracker){
+            synchronized (returned){
+                if (returnedSize == returned.length){
+                    returnedDropped++;
+                    return false;
+                }
+                returned[returnedSize++] = tracker;
+                returnedPushed++;
+                return true;
+            }
+        }
+
+        /**
+         * Moves the pizzas released by other threads to the stack. Only called by the owner,
+         * when the stack is empty.
+         *
+         * @return false if there were none
+         */
+        boolean takeReturned(){
+            synchronized (returned){
+                if (returnedSize == 0){
+                    return false;
+                }
+                int moved = Math.min(returnedSize, pizzas.length - size);
+                for (int i = 0; i < moved; i++){
+                    pizzas[size++] = returned[--returnedSize];
+                    returned[returnedSize] = null;
+                }
+                return moved > 0;
+            }
+        }
+    }
+}
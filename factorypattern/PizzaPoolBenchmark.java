@@ -0,0 +1,122 @@
+package factorypattern;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.DominosPizzaStore;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaHutPizzaStore;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaStore;
+
+/**
+ * Serves a peak hour of orders from a few threads, with the plain stores and with pooled
+ * stores in both pool modes.
+ *
+ * Prints ns and bytes allocated per order, and the young collections the run caused. Then
+ * leaks a few pizzas on purpose to show that the pool reports them.
+ *
+ * Usage : PizzaPoolBenchmark [orders per thread] [threads]
+ */
+public class PizzaPoolBenchmark {
+
+    private static final PizzaType[] TYPES = {PizzaType.CHEESE, PizzaType.PAN};
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException {
+        int orders = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        System.out.println(String.format("%d threads x %d orders", threads, orders));
+        for (int round = 0; round < ROUNDS; round++){
+            // the first rounds warm up the JIT
+            boolean print = round == ROUNDS - 1;
+            run("plain       ", stores(null), orders, threads, print);
+            run("striped     ", stores(PizzaPool.Mode.STRIPED), orders, threads, print);
+            run("thread local", stores(PizzaPool.Mode.THREAD_LOCAL), orders, threads, print);
+        }
+
+        PooledPizzaStore store = new PooledPizzaStore(new DominosPizzaStore(), PizzaPool.Mode.STRIPED, 16);
+        for (int i = 0; i < 3; i++){
+            // acquired, never released
+            store.createPizza(PizzaType.CHEESE);
+        }
+        for (int i = 0; i < 3; i++){
+            System.gc();
+            Thread.sleep(50);
+        }
+        System.out.println(store.getPool());
+    }
+
+    /**
+     * @param mode null for the plain stores
+     */
+    private static PizzaStore[] stores(PizzaPool.Mode mode){
+        PizzaStore[] stores = {new DominosPizzaStore(), new PizzaHutPizzaStore()};
+        for (int i = 0; i < stores.length; i++){
+            if (mode != null){
+                stores[i] = new PooledPizzaStore(stores[i], mode, 16);
+            }
+            stores[i].verbose = false;
+        }
+        return stores;
+    }
+
+    private static void run(String name, PizzaStore[] stores, int orders, int threads, boolean print)
+            throws InterruptedException {
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicLong allocated = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++){
+            int seed = t;
+            workers[t] = new Thread(() -> {
+                long threadId = Thread.currentThread().getId();
+                try {
+                    start.await();
+                } catch (InterruptedException e){
+                    return;
+                }
+                long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+                for (int i = 0; i < orders; i++){
+                    int order = i + seed;
+                    stores[order & 1].orderPizza(TYPES[(order >>> 1) & 1]);
+                }
+                allocated.addAndGet(threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore);
+            });
+            workers[t].start();
+        }
+        long collectionsBefore = collections();
+        long collectionMillisBefore = collectionMillis();
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers){
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        long totalOrders = (long) orders * threads;
+        if (print){
+            System.out.println(String.format("%s : %6.2f ns, %5.1f bytes per order, %4d collections in %4d ms",
+                    name, (double) elapsed / totalOrders, (double) allocated.get() / totalOrders,
+                    collections() - collectionsBefore, collectionMillis() - collectionMillisBefore));
+        }
+    }
+
+    private static long collections(){
+        long collections = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            collections += Math.max(0, collector.getCollectionCount());
+        }
+        return collections;
+    }
+
+    private static long collectionMillis(){
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()){
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,55 @@
+package factorypattern;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.Pizza;
+
+/**
+ * The pizzas a store makes, as a constructor per {@link PizzaType} in an array indexed by
+ * the type's id. Creating a pizza is one array read and the constructor call.
+ *
+ * A store registers its pizzas when it is created, and doesn't change them after, so lookups
+ * need no locking. Asking for a type the store doesn't make throws, instead of silently
+ * making another pizza.
+ */
+final class PizzaRegistry {
+
+    private final String storeName;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Supplier<? extends Pizza>[] suppliers = new Supplier[0];
+
+    PizzaRegistry(String storeName){
+        this.storeName = storeName;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the type is already registered
+     */
+    PizzaRegistry register(PizzaType type, Supplier<? extends Pizza> supplier){
+        if (makes(type)){
+            throw new IllegalArgumentException(storeName + " already makes " + type + " pizzas");
+        }
+        if (type.id >= suppliers.length){
+            suppliers = Arrays.copyOf(suppliers, type.id + 1);
+        }
+        suppliers[type.id] = supplier;
+        return this;
+    }
+
+    boolean makes(PizzaType type){
+        return type.id < suppliers.length && suppliers[type.id] != null;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the store doesn't make that type
+     */
+    Pizza create(PizzaType type){
+        Supplier<? extends Pizza>[] suppliers = this.suppliers;
+        if (type.id >= suppliers.length || suppliers[type.id] == null){
+            throw new IllegalArgumentException(storeName + " doesn't make " + type + " pizzas");
+        }
+        return suppliers[type.id].get();
+    }
+}
@@ -0,0 +1,122 @@
+package factorypattern;
+
+import java.util.Random;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.Pizza;
+
+/**
+ * Creates pizzas from a stream of orders across many stores and types, with the string
+ * switch the stores used to have, and with a {@link PizzaRegistry} looked up by type name and
+ * by an already resolved {@link PizzaType}.
+ *
+ * Order types are separate String objects, as if read from the wire. Prints the best ns per
+ * pizza of a few rounds.
+ *
+ * Usage : PizzaRegistryBenchmark [orders]
+ */
+public class PizzaRegistryBenchmark {
+
+    private static final String[] NAMES = {"cheese", "pan", "margherita", "pepperoni",
+            "veggie", "hawaiian", "bbq chicken", "four cheese"};
+
+    private static final int STORES = 16;
+
+    private static final int ROUNDS = 5;
+
+    private static class MenuPizza extends Pizza {
+
+        MenuPizza(String name){
+            this.name = name;
+        }
+    }
+
+    /**
+     * The way the stores created pizzas before the registry.
+     */
+    private static class SwitchStore {
+
+        Pizza createPizza(String type){
+            switch (type){
+                case "cheese":
+                    return new MenuPizza("cheese");
+                case "pan":
+                    return new MenuPizza("pan");
+                case "margherita":
+                    return new MenuPizza("margherita");
+                case "pepperoni":
+                    return new MenuPizza("pepperoni");
+                case "veggie":
+                    return new MenuPizza("veggie");
+                case "hawaiian":
+                    return new MenuPizza("hawaiian");
+                case "bbq chicken":
+                    return new MenuPizza("bbq chicken");
+                case "four cheese":
+                    return new MenuPizza("four cheese");
+                default:
+                    return new MenuPizza("pan");
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int orderCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+
+        PizzaType[] types = new PizzaType[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++){
+            types[i] = PizzaType.register(NAMES[i]);
+        }
+        SwitchStore[] switchStores = new SwitchStore[STORES];
+        PizzaRegistry[] registries = new PizzaRegistry[STORES];
+        for (int s = 0; s < STORES; s++){
+            switchStores[s] = new SwitchStore();
+            registries[s] = new PizzaRegistry("Store " + s);
+            for (PizzaType type : types){
+                String name = type.name;
+                registries[s].register(type, () -> new MenuPizza(name));
+            }
+        }
+
+        Random random = new Random(42);
+        int[] orderStores = new int[orderCount];
+        String[] orderNames = new String[orderCount];
+        PizzaType[] orderTypes = new PizzaType[orderCount];
+        for (int i = 0; i < orderCount; i++){
+            int type = random.nextInt(NAMES.length);
+            orderStores[i] = random.nextInt(STORES);
+            orderNames[i] = new String(NAMES[type]);
+            orderTypes[i] = types[type];
+        }
+
+        long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        long checksum = 0;
+        for (int round = 0; round < ROUNDS; round++){
+            long start = System.nanoTime();
+            for (int i = 0; i < orderCount; i++){
+                checksum += switchStores[orderStores[i]].createPizza(orderNames[i]).name.length();
+            }
+            best[0] = Math.min(best[0], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < orderCount; i++){
+                checksum += registries[orderStores[i]].create(PizzaType.valueOf(orderNames[i])).name.length();
+            }
+            best[1] = Math.min(best[1], System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < orderCount; i++){
+                checksum += registries[orderStores[i]].create(orderTypes[i]).name.length();
+            }
+            best[2] = Math.min(best[2], System.nanoTime() - start);
+        }
+        if (checksum == 42){
+            // never true, keeps the JIT from dropping the calls
+            System.out.println();
+        }
+
+        System.out.println(String.format("%d orders, %d stores, %d types", orderCount, STORES, NAMES.length));
+        System.out.println(String.format("string switch          : %6.2f ns per pizza", (double) best[0] / orderCount));
+        System.out.println(String.format("registry, by name      : %6.2f ns per pizza", (double) best[1] / orderCount));
+        System.out.println(String.format("registry, by PizzaType : %6.2f ns per pizza", (double) best[2] / orderCount));
+    }
+}
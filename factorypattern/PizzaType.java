@@ -0,0 +1,62 @@
+package factorypattern;
+
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A kind of pizza, interned : there is one PizzaType per name, with a small id that stores
+ * use as an index into their {@link PizzaRegistry}.
+ *
+ * Resolve the name of a type once, when the order comes in, and pass the type around.
+ */
+final class PizzaType {
+
+    private static final Map<String, PizzaType> TYPES = new ConcurrentHashMap<>();
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    static final PizzaType CHEESE = register("cheese");
+
+    static final PizzaType PAN = register("pan");
+
+    final int id;
+
+    final String name;
+
+    private PizzaType(String name){
+        this.id = NEXT_ID.getAndIncrement();
+        this.name = name;
+    }
+
+    /**
+     * @return the type of the name, a new one the first time the name is seen
+     */
+    static PizzaType register(String name){
+        return TYPES.computeIfAbsent(name, PizzaType::new);
+    }
+
+    /**
+     * @throws IllegalArgumentException if no type has that name
+     */
+    static PizzaType valueOf(String name){
+        PizzaType type = TYPES.get(name);
+        if (type == null){
+            throw new IllegalArgumentException("Unknown pizza type " + name + ", known types are " + new TreeSet<>(TYPES.keySet()));
+        }
+        return type;
+    }
+
+    /**
+     * @return number of types, ids go from 0 to count() - 1
+     */
+    static int count(){
+        return NEXT_ID.get();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,35 @@
+package factorypattern;
+
+import factorypattern.FactoryMethodPatternPizzaFactory.Pizza;
+import factorypattern.FactoryMethodPatternPizzaFactory.PizzaStore;
+
+/**
+ * A store that serves the pizzas of another store from a {@link PizzaPool}, and takes them
+ * back once delivered.
+ *
+ * Orders still go through the other store's factory method, but only when the pool has no
+ * pizza of that type left.
+ */
+class PooledPizzaStore extends PizzaStore {
+
+    private final PizzaPool pool;
+
+    PooledPizzaStore(PizzaStore store, PizzaPool.Mode mode, int capacityPerStripe){
+        pizzaStoreName = store.pizzaStoreName;
+        pool = new PizzaPool(store, mode, capacityPerStripe);
+    }
+
+    PizzaPool getPool() {
+        return pool;
+    }
+
+    @Override
+    protected Pizza createPizza(PizzaType type) {
+        return pool.acquire(type);
+    }
+
+    @Override
+    protected void release(Pizza pizza) {
+        pool.release(pizza);
+    }
+}
@@ -0,0 +1,78 @@
+package observerpattern;
+
+/**
+ * Low overhead latency histogram with log-linear buckets, in the spirit of HdrHistogram.
+ *
+ * Every power of two is split into 8 linear sub-buckets, so a recorded value is off by at most
+ * 12.5%. Recording is a couple of shifts and one plain increment, with no allocation, no lock
+ * and no atomic instruction. It is meant for a single recording thread at a time, like the
+ * deliveries to one observer. Concurrent recording threads may lose a few counts, and readers
+ * see counts that are slightly out of date; both are fine for monitoring.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[(Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+
+    void record(long nanos){
+        counts[bucketOf(Math.max(0, nanos))]++;
+    }
+
+    long count(){
+        long count = 0;
+        for (long bucketCount : counts){
+            count += bucketCount;
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return lower bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    long percentile(double percentile){
+        long[] snapshot = counts.clone();
+        long count = 0;
+        for (long bucketCount : snapshot){
+            count += bucketCount;
+        }
+        long rank = (long) Math.ceil(percentile / 100 * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++){
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0){
+                return lowerBoundOf(i);
+            }
+        }
+        return 0;
+    }
+
+    long max(){
+        for (int i = counts.length - 1; i >= 0; i--){
+            if (counts[i] > 0){
+                return lowerBoundOf(i);
+            }
+        }
+        return 0;
+    }
+
+    static int bucketOf(long value){
+        if (value < SUB_BUCKETS){
+            return (int) value;
+        }
+        int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBoundOf(int bucket){
+        if (bucket < SUB_BUCKETS){
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+}
@@ -0,0 +1,284 @@
+package observerpattern;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import observerpattern.TennisScoreObserverPattern.Observable;
+import observerpattern.TennisScoreObserverPattern.Observer;
+
+/**
+ * Bounded queue of notifications for one observer, drained on an executor.
+ *
+ * A mailbox is itself an {@link Observer}. The observable notifies the mailbox, which only
+ * queues the notification and returns, and the real observer is called later on the executor.
+ * So a slow observer only delays its own notifications and never the publisher.
+ * Notifications of one mailbox are delivered one at a time, in order.
+ *
+ * Observers pull the score when they are notified, so a delivered notification always
+ * shows the latest score. That is what makes conflation safe.
+ */
+class ObserverMailbox implements Observer {
+
+    /**
+     * What to do with a new notification when the mailbox is full.
+     */
+    enum OverflowPolicy {
+        // throw away the oldest queued notification
+        DROP_OLDEST,
+        // merge score notifications that follow each other, the observer pulls the latest score anyway.
+        // Falls back to DROP_OLDEST when the mailbox is still full
+        CONFLATE,
+        // make the publisher wait until the observer catches up
+        BLOCK
+    }
+
+    /**
+     * A queued notification.
+     */
+    private static class Notification {
+
+        final Observable observable;
+
+        // null for a score update
+        final String errorMessage;
+
+        final long publishedAtNanos;
+
+        // score updates merged into this notification. Guarded by the mailbox lock
+        int skippedUpdates;
+
+        Notification(Observable observable, String errorMessage, long publishedAtNanos, int skippedUpdates){
+            this.observable = observable;
+            this.errorMessage = errorMessage;
+            this.publishedAtNanos = publishedAtNanos;
+            this.skippedUpdates = skippedUpdates;
+        }
+    }
+
+    private final Observer observer;
+
+    private final Executor executor;
+
+    private final int capacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final ArrayDeque<Notification> queue;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notFull = lock.newCondition();
+
+    // guarded by lock. True while a drain task is submitted or running
+    private boolean draining;
+
+    // guarded by lock. The queued score notification, for CONFLATE
+    private Notification queuedScoreNotification;
+
+    // metrics, guarded by lock
+    private long published;
+    private long delivered;
+    private long dropped;
+    private long conflated;
+    private long failed;
+    private long rejectedDrains;
+    private long lastLagNanos;
+    private long maxLagNanos;
+
+    ObserverMailbox(Observer observer, Executor executor, int capacity, OverflowPolicy overflowPolicy){
+        if (capacity <= 0){
+            throw new IllegalArgumentException("capacity must be positive : " + capacity);
+        }
+        this.observer = observer;
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayDeque<>(capacity);
+    }
+
+    Observer getObserver() {
+        return observer;
+    }
+
+    /**
+     * Queues the notification and returns right away, unless the mailbox is full
+     * and the policy is {@link OverflowPolicy#BLOCK}.
+     */
+    @Override
+    public void update(Observable observable, String errorMessage) {
+        update(observable, errorMessage, 0);
+    }
+
+    @Override
+    public void update(Observable observable, String errorMessage, int skippedUpdates) {
+        boolean startDrain;
+        lock.lock();
+        try {
+            published++;
+            if (errorMessage == null && overflowPolicy == OverflowPolicy.CONFLATE
+                    && queuedScoreNotification != null && queue.peekLast() == queuedScoreNotification){
+                // the queued notification will show this score as well. Only merged when nothing
+                // was queued after it, so that scores and errors stay in order
+                queuedScoreNotification.skippedUpdates += skippedUpdates + 1;
+                conflated++;
+                return;
+            }
+            Notification notification = new Notification(observable, errorMessage, System.nanoTime(), skippedUpdates);
+            while (queue.size() == capacity){
+                if (overflowPolicy == OverflowPolicy.BLOCK){
+                    notFull.awaitUninterruptibly();
+                }
+                else {
+                    Notification oldest = queue.pollFirst();
+                    if (oldest == queuedScoreNotification){
+                        queuedScoreNotification = null;
+                    }
+                    dropped++;
+                }
+            }
+            queue.addLast(notification);
+            if (errorMessage == null){
+                queuedScoreNotification = notification;
+            }
+            startDrain = !draining;
+            draining = true;
+        } finally {
+            lock.unlock();
+        }
+        if (startDrain){
+            try {
+                executor.execute(this::drain);
+            } catch (RuntimeException e){
+                // the notification stays queued, the next update tries to start a drain again
+                lock.lock();
+                try {
+                    draining = false;
+                    rejectedDrains++;
+                } finally {
+                    lock.unlock();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Delivers queued notifications until the mailbox is empty.
+     */
+    private void drain(){
+        boolean emptied = false;
+        try {
+            while (true){
+                Notification notification;
+                lock.lock();
+                try {
+                    notification = queue.pollFirst();
+                    if (notification == null){
+                        draining = false;
+                        emptied = true;
+                        return;
+                    }
+                    if (notification == queuedScoreNotification){
+                        queuedScoreNotification = null;
+                    }
+                    lastLagNanos = System.nanoTime() - notification.publishedAtNanos;
+                    maxLagNanos = Math.max(maxLagNanos, lastLagNanos);
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+                boolean succeeded = false;
+                try {
+                    observer.update(notification.observable, notification.errorMessage, notification.skippedUpdates);
+                    succeeded = true;
+                } catch (RuntimeException e){
+                    // a failing observer must not stop the delivery of later notifications
+                } finally {
+                    lock.lock();
+                    try {
+                        delivered++;
+                        if (!succeeded){
+                            failed++;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } finally {
+            if (!emptied){
+                // an Error got out of the observer. The notification it threw on is used up, so
+                // carry on with the rest in a new drain, a BLOCK publisher may be waiting on them
+                rescheduleDrain();
+            }
+        }
+    }
+
+    private void rescheduleDrain(){
+        try {
+            executor.execute(this::drain);
+        } catch (RuntimeException e){
+            lock.lock();
+            try {
+                draining = false;
+                rejectedDrains++;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return snapshot of the delivery metrics of this mailbox
+     */
+    LagMetrics getLagMetrics(){
+        lock.lock();
+        try {
+            return new LagMetrics(published, delivered, dropped, conflated, failed, rejectedDrains, queue.size(),
+                    lastLagNanos, maxLagNanos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * How far an observer lags behind the publisher.
+     * Lag is the time from publishing a notification until its delivery starts.
+     */
+    static class LagMetrics {
+
+        final long published;
+        final long delivered;
+        final long dropped;
+        final long conflated;
+        // delivered notifications that the observer threw on
+        final long failed;
+        // drains that the executor refused to run
+        final long rejectedDrains;
+        final int queued;
+        final long lastLagNanos;
+        final long maxLagNanos;
+
+        LagMetrics(long published, long delivered, long dropped, long conflated, long failed,
+                   long rejectedDrains, int queued, long lastLagNanos, long maxLagNanos){
+            this.published = published;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.conflated = conflated;
+            this.failed = failed;
+            this.rejectedDrains = rejectedDrains;
+            this.queued = queued;
+            this.lastLagNanos = lastLagNanos;
+            this.maxLagNanos = maxLagNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("published=%d delivered=%d dropped=%d conflated=%d failed=%d rejectedDrains=%d queued=%d"
+                    + " lastLag=%dus maxLag=%dus", published, delivered, dropped, conflated, failed, rejectedDrains,
+                    queued, lastLagNanos / 1000, maxLagNanos / 1000);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package observerpattern;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import observerpattern.TennisScoreObserverPattern.Observable;
+import observerpattern.TennisScoreObserverPattern.Observer;
+
+/**
+ * Delivery metrics of one observer : a latency histogram of its update() calls,
+ * the error messages pushed to it, and the exceptions it threw.
+ */
+class ObserverMetrics implements ObserverMetricsMBean {
+
+    private final String observerName;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder errorPushes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    // set while registered with JMX
+    private ObjectName objectName;
+
+    // match the metrics are registered under, null while not registered
+    private String match;
+
+    ObserverMetrics(String observerName){
+        this.observerName = observerName;
+    }
+
+    /**
+     * Decorates an observer, recording every delivery in its metrics.
+     *
+     * When the observable walks its observers, it chains the deliveries through
+     * {@link #deliver(Observable, String, int, long)} : the end time of one delivery is the start
+     * time of the next one, so each delivery costs one nanoTime() and one histogram increment.
+     */
+    static class InstrumentedObserver implements Observer {
+
+        private final Observer observer;
+
+        private final ObserverMetrics metrics;
+
+        InstrumentedObserver(Observer observer, ObserverMetrics metrics){
+            this.observer = observer;
+            this.metrics = metrics;
+        }
+
+        ObserverMetrics getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public void update(Observable observable, String errorMessage) {
+            update(observable, errorMessage, 0);
+        }
+
+        @Override
+        public void update(Observable observable, String errorMessage, int skippedUpdates) {
+            deliver(observable, errorMessage, skippedUpdates, System.nanoTime());
+        }
+
+        /**
+         * @param start when the delivery started, usually the end of the previous delivery
+         * @return when the delivery ended
+         */
+        long deliver(Observable observable, String errorMessage, int skippedUpdates, long start) {
+            if (errorMessage != null){
+                metrics.errorPushes.increment();
+            }
+            try {
+                observer.update(observable, errorMessage, skippedUpdates);
+            } catch (RuntimeException e){
+                metrics.failures.increment();
+                metrics.latency.record(System.nanoTime() - start);
+                throw e;
+            }
+            long end = System.nanoTime();
+            metrics.latency.record(end - start);
+            return end;
+        }
+    }
+
+    /**
+     * Metrics of a whole observable : time from a score update to the last delivery.
+     */
+    static class ScoreUpdateMetrics implements ScoreUpdateMetricsMBean {
+
+        private final LatencyHistogram updateToLastDelivery = new LatencyHistogram();
+
+        private final AtomicLong updates = new AtomicLong();
+
+        void recordUpdate(long nanos){
+            updates.incrementAndGet();
+            updateToLastDelivery.record(nanos);
+        }
+
+        @Override
+        public long getUpdates() {
+            return updates.get();
+        }
+
+        @Override
+        public long getUpdateToLastDeliveryP50Nanos() {
+            return updateToLastDelivery.percentile(50);
+        }
+
+        @Override
+        public long getUpdateToLastDeliveryP99Nanos() {
+            return updateToLastDelivery.percentile(99);
+        }
+
+        @Override
+        public long getUpdateToLastDeliveryMaxNanos() {
+            return updateToLastDelivery.max();
+        }
+    }
+
+    @Override
+    public String getObserver() {
+        return observerName;
+    }
+
+    @Override
+    public long getDeliveries() {
+        return latency.count();
+    }
+
+    @Override
+    public long getErrorPushes() {
+        return errorPushes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return latency.percentile(50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return latency.percentile(99);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+        return latency.percentile(99.9);
+    }
+
+    @Override
+    public long getLatencyMaxNanos() {
+        return latency.max();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : deliveries=%d errorPushes=%d failures=%d p50=%dns p99=%dns max=%dns",
+                observerName, getDeliveries(), getErrorPushes(), getFailures(),
+                getLatencyP50Nanos(), getLatencyP99Nanos(), getLatencyMaxNanos());
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, under the name of the match.
+     * Does nothing if they are already registered under that match, and moves them if they are
+     * registered under another one.
+     */
+    synchronized void registerMBean(String match, Observer observer){
+        if (match.equals(this.match)){
+            return;
+        }
+        unregisterMBean();
+        try {
+            // two observers of the same class need different names
+            String id = observerName + "@" + Integer.toHexString(System.identityHashCode(observer));
+            ObjectName name = new ObjectName("observerpattern:type=ObserverMetrics,match=" + ObjectName.quote(match)
+                    + ",observer=" + ObjectName.quote(id));
+            mbeanServer().registerMBean(new StandardMBean(this, ObserverMetricsMBean.class), name);
+            objectName = name;
+            this.match = match;
+        } catch (JMException e){
+            throw new IllegalStateException("Could not register metrics of " + observerName, e);
+        }
+    }
+
+    synchronized void unregisterMBean(){
+        if (objectName != null){
+            unregister(objectName);
+            objectName = null;
+            match = null;
+        }
+    }
+
+    static ObjectName registerMBean(String match, ScoreUpdateMetrics metrics){
+        try {
+            ObjectName name = new ObjectName("observerpattern:type=ScoreUpdateMetrics,match=" + ObjectName.quote(match));
+            mbeanServer().registerMBean(new StandardMBean(metrics, ScoreUpdateMetricsMBean.class), name);
+            return name;
+        } catch (JMException e){
+            throw new IllegalStateException("Could not register metrics of " + match, e);
+        }
+    }
+
+    static void unregister(ObjectName name){
+        try {
+            mbeanServer().unregisterMBean(name);
+        } catch (JMException e){
+            // already gone, nothing left to clean up
+        }
+    }
+
+    private static MBeanServer mbeanServer(){
+        return ManagementFactory.getPlatformMBeanServer();
+    }
+}
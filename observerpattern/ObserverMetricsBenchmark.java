@@ -0,0 +1,51 @@
+package observerpattern;
+
+import observerpattern.TennisScoreObserverPattern.Observer;
+import observerpattern.TennisScoreObserverPattern.TennisScoreObservable;
+
+/**
+ * Measures the overhead that delivery metrics add to every delivery.
+ *
+ * Notifies observers that do next to nothing, once without and once with metrics,
+ * and reports the time per delivery.
+ *
+ * Usage : ObserverMetricsBenchmark [observers] [updates]
+ */
+public class ObserverMetricsBenchmark {
+
+    // written by the observers, so that the JIT can't drop the deliveries
+    private static volatile long sink;
+
+    public static void main(String[] args) {
+        int observerCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        double plain = nanosPerDelivery(false, observerCount, updates);
+        double instrumented = nanosPerDelivery(true, observerCount, updates);
+        System.out.println(String.format("plain : %.1f ns/delivery, with metrics : %.1f ns/delivery, overhead : %.1f ns",
+                plain, instrumented, instrumented - plain));
+    }
+
+    private static double nanosPerDelivery(boolean metrics, int observerCount, int updates){
+        TennisScoreObservable observable = new TennisScoreObservable();
+        if (metrics){
+            observable.enableMetrics("benchmark");
+        }
+        for (int i = 0; i < observerCount; i++){
+            // capturing lambda, so that each observer is a distinct object
+            final int id = i;
+            Observer observer = (o, errorMessage) -> sink += id;
+            observable.registerObserver(observer);
+        }
+        long score = Score.pack(1, 0, 0, 0, 0);
+        // first half warms up the JIT
+        for (int i = 0; i < updates / 2; i++){
+            observable.updateScore(score);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < updates; i++){
+            observable.updateScore(score);
+        }
+        return (double) (System.nanoTime() - start) / updates / observerCount;
+    }
+}
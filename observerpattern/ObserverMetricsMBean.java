@@ -0,0 +1,23 @@
+package observerpattern;
+
+/**
+ * JMX view of the delivery metrics of one observer. Latencies are in nanoseconds.
+ */
+public interface ObserverMetricsMBean {
+
+    String getObserver();
+
+    long getDeliveries();
+
+    long getErrorPushes();
+
+    long getFailures();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    long getLatencyMaxNanos();
+}
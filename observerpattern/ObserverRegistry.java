@@ -0,0 +1,201 @@
+package observerpattern;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Concurrent registry of observers, built for a notify path that never locks.
+ *
+ * Notifying walks a snapshot (an array and the number of slots in use), so observers can be
+ * registered and removed while notifications are going on. An observer registered or removed
+ * during a walk may or may not be seen by that walk.
+ *
+ * Registering appends to the free tail of the array, which no walk reads, and publishes a new
+ * snapshot. It returns a {@link Handle}. Removing by handle clears the observer's slot; the
+ * array is copied without the cleared slots once they make up half of it, so removal is
+ * O(1) amortized. Replacing by handle swaps the observer in its slot, so it keeps its place
+ * in the notification order and no walk misses it. Slots are written atomically, a walk in
+ * progress sees either the old or the new content. Writers (register, replace and remove)
+ * are serialized by a lock.
+ */
+class ObserverRegistry<T> {
+
+    /**
+     * Registration of one observer. Used to remove it again.
+     */
+    static final class Handle<T> {
+
+        // written under the registry lock, read by anyone
+        private volatile T item;
+
+        private final ObserverRegistry<T> registry;
+
+        // index of the item in the array, -1 once removed. Guarded by the registry lock
+        private int slot;
+
+        private Handle(T item, ObserverRegistry<T> registry, int slot){
+            this.item = item;
+            this.registry = registry;
+            this.slot = slot;
+        }
+
+        T getItem() {
+            return item;
+        }
+
+        /**
+         * Removes the observer from the registry. Does nothing if it is already removed.
+         */
+        void remove(){
+            registry.remove(this);
+        }
+
+        /**
+         * Puts another observer in this one's place, e.g. the same observer wrapped differently.
+         * Walks see either of them, never none.
+         * @return false if the handle was removed
+         */
+        boolean replace(T item){
+            return registry.replace(this, item);
+        }
+    }
+
+    /**
+     * What a walk sees. Slots at or above used are not read by the walk.
+     */
+    private static final class Snapshot<T> {
+
+        final AtomicReferenceArray<T> items;
+
+        final int used;
+
+        Snapshot(AtomicReferenceArray<T> items, int used){
+            this.items = items;
+            this.used = used;
+        }
+    }
+
+    /**
+     * Action for {@link #fold(long, LongFolder)}, which threads a long from one observer to the next.
+     */
+    interface LongFolder<T> {
+        long apply(T item, long state);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private volatile Snapshot<T> snapshot = new Snapshot<>(new AtomicReferenceArray<>(INITIAL_CAPACITY), 0);
+
+    // guarded by this. Handle of the item in each slot, parallel to the snapshot array
+    private Handle<T>[] handles = newHandleArray(INITIAL_CAPACITY);
+
+    // guarded by this. Cleared slots below used
+    private int cleared;
+
+    synchronized Handle<T> register(T item){
+        Snapshot<T> current = snapshot;
+        AtomicReferenceArray<T> items = current.items;
+        int used = current.used;
+        if (used == items.length()){
+            items = compact(current, Math.max(INITIAL_CAPACITY, 2 * (used - cleared)));
+            used -= cleared;
+            cleared = 0;
+        }
+        Handle<T> handle = new Handle<>(item, this, used);
+        handles[used] = handle;
+        // no walk reads beyond its snapshot's used count, so this slot is free to write
+        items.setPlain(used, item);
+        // volatile write, publishes the slot to the next walk
+        snapshot = new Snapshot<>(items, used + 1);
+        return handle;
+    }
+
+    private synchronized void remove(Handle<T> handle){
+        if (handle.slot < 0){
+            return;
+        }
+        Snapshot<T> current = snapshot;
+        // a walk in progress sees either the item or null
+        current.items.setRelease(handle.slot, null);
+        handles[handle.slot] = null;
+        handle.slot = -1;
+        cleared++;
+        if (cleared > INITIAL_CAPACITY && cleared * 2 >= current.used){
+            int live = current.used - cleared;
+            AtomicReferenceArray<T> items = compact(current, Math.max(INITIAL_CAPACITY, 2 * live));
+            cleared = 0;
+            snapshot = new Snapshot<>(items, live);
+        }
+    }
+
+    private synchronized boolean replace(Handle<T> handle, T item){
+        if (handle.slot < 0){
+            return false;
+        }
+        handle.item = item;
+        snapshot.items.setRelease(handle.slot, item);
+        return true;
+    }
+
+    /**
+     * Calls the action for every registered observer, without locking.
+     */
+    void forEach(Consumer<? super T> action){
+        Snapshot<T> current = snapshot;
+        AtomicReferenceArray<T> items = current.items;
+        for (int i = 0, used = current.used; i < used; i++){
+            T item = items.getAcquire(i);
+            if (item != null){
+                action.accept(item);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #forEach(Consumer)}, passing the state returned for one observer on to the next.
+     * @return the state returned for the last observer, the initial state if there are none
+     */
+    long fold(long initialState, LongFolder<? super T> folder){
+        Snapshot<T> current = snapshot;
+        AtomicReferenceArray<T> items = current.items;
+        long state = initialState;
+        for (int i = 0, used = current.used; i < used; i++){
+            T item = items.getAcquire(i);
+            if (item != null){
+                state = folder.apply(item, state);
+            }
+        }
+        return state;
+    }
+
+    synchronized int size(){
+        return snapshot.used - cleared;
+    }
+
+    /**
+     * Copies the live items to the front of a new array and moves their handles along.
+     * The old array is left as is, for the walks still using it.
+     */
+    private AtomicReferenceArray<T> compact(Snapshot<T> current, int capacity){
+        AtomicReferenceArray<T> items = new AtomicReferenceArray<>(capacity);
+        Handle<T>[] newHandles = newHandleArray(capacity);
+        int next = 0;
+        for (int i = 0; i < current.used; i++){
+            Handle<T> handle = handles[i];
+            if (handle != null){
+                handle.slot = next;
+                newHandles[next] = handle;
+                items.setPlain(next, handle.item);
+                next++;
+            }
+        }
+        handles = newHandles;
+        return items;
+    }
+
+    // never escapes, only holds handles of this registry
+    @SuppressWarnings("unchecked")
+    private static <T> Handle<T>[] newHandleArray(int capacity){
+        return (Handle<T>[]) new Handle<?>[capacity];
+    }
+}
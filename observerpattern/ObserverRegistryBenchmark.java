@@ -0,0 +1,133 @@
+package observerpattern;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Compares the {@link ObserverRegistry} with a {@link CopyOnWriteArrayList}, the usual
+ * thread safe replacement for the LinkedList the observable used to have.
+ *
+ * Thousands of observers are registered. A publisher thread notifies all of them as fast as it
+ * can, while a churn thread keeps removing a random observer and registering it again.
+ * The churn thread is paced to the same rate for both registries, so that the delivery rates
+ * can be compared. A churn rate of 0 runs it flat out, to compare the churn rates instead.
+ *
+ * Usage : ObserverRegistryBenchmark [observers] [seconds] [churn per second]
+ */
+public class ObserverRegistryBenchmark {
+
+    private interface Registry {
+        Object register(Consumer<Integer> observer);
+        void remove(Object registration);
+        void notifyAll(Integer update);
+    }
+
+    private static class ObserverRegistryAdapter implements Registry {
+
+        private final ObserverRegistry<Consumer<Integer>> registry = new ObserverRegistry<>();
+
+        @Override
+        public Object register(Consumer<Integer> observer) {
+            return registry.register(observer);
+        }
+
+        @Override
+        public void remove(Object registration) {
+            ((ObserverRegistry.Handle<?>) registration).remove();
+        }
+
+        @Override
+        public void notifyAll(Integer update) {
+            registry.forEach(observer -> observer.accept(update));
+        }
+    }
+
+    private static class CopyOnWriteAdapter implements Registry {
+
+        private final List<Consumer<Integer>> observers = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Object register(Consumer<Integer> observer) {
+            observers.add(observer);
+            return observer;
+        }
+
+        @Override
+        public void remove(Object registration) {
+            observers.remove(registration);
+        }
+
+        @Override
+        public void notifyAll(Integer update) {
+            for (Consumer<Integer> observer : observers){
+                observer.accept(update);
+            }
+        }
+    }
+
+    // consumed by the observers, so that the JIT can't drop the deliveries
+    private static volatile int sink;
+
+    public static void main(String[] args) throws InterruptedException {
+        int observerCount = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int churnPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        run("ObserverRegistry", new ObserverRegistryAdapter(), observerCount, seconds, churnPerSecond);
+        run("CopyOnWriteArrayList", new CopyOnWriteAdapter(), observerCount, seconds, churnPerSecond);
+    }
+
+    private static void run(String name, final Registry registry, int observerCount, int seconds,
+                            int churnPerSecond) throws InterruptedException {
+        final long churnIntervalNanos = churnPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / churnPerSecond : 0;
+        final Object[] registrations = new Object[observerCount];
+        for (int i = 0; i < observerCount; i++){
+            registrations[i] = registry.register(newObserver());
+        }
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final long[] notifications = new long[1];
+        final long[] churns = new long[1];
+
+        Thread publisher = new Thread(() -> {
+            int update = 0;
+            while (System.nanoTime() < deadline){
+                registry.notifyAll(update++ & 0xFF);
+                notifications[0]++;
+            }
+        });
+        Thread churner = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long nextChurn = System.nanoTime();
+            while (System.nanoTime() < deadline){
+                if (churnIntervalNanos > 0){
+                    nextChurn += churnIntervalNanos;
+                    while (System.nanoTime() < nextChurn){
+                        Thread.onSpinWait();
+                    }
+                }
+                int i = random.nextInt(registrations.length);
+                registry.remove(registrations[i]);
+                registrations[i] = registry.register(newObserver());
+                churns[0]++;
+            }
+        });
+        publisher.start();
+        churner.start();
+        publisher.join();
+        churner.join();
+
+        System.out.println(String.format("%-22s %d observers : %.3e deliveries/s, %.3e remove+register/s",
+                name, observerCount, (double) notifications[0] * observerCount / seconds,
+                (double) churns[0] / seconds));
+    }
+
+    private static Consumer<Integer> newObserver(){
+        return update -> {
+            if (update == -1){
+                sink++;
+            }
+        };
+    }
+}
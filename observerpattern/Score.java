@@ -0,0 +1,146 @@
+package observerpattern;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tennis score packed into a single long, so that it can be passed around and compared
+ * without allocating, and without parsing strings like "SET1##0-0##15-30".
+ *
+ * Layout, one byte each from the low bits up : points of player B, points of player A,
+ * games of player B, games of player A, set number. Points are indexes into
+ * 0, 15, 30, 40, AD. {@link #UNKNOWN} stands for scores that don't fit this layout.
+ *
+ * Scores are rendered to strings only when asked, in the same format as before.
+ */
+final class Score {
+
+    static final long UNKNOWN = -1L;
+
+    /**
+     * Bytes taken by one score in a {@link ByteBuffer}.
+     */
+    static final int ENCODED_SIZE = Long.BYTES;
+
+    private static final String[] POINTS = {"0", "15", "30", "40", "AD"};
+
+    private static final String SET_PREFIX = "SET";
+
+    private static final String SEPARATOR = "##";
+
+    private Score(){
+        // only static helpers, a score is a long
+    }
+
+    static long pack(int set, int gamesA, int gamesB, int pointsA, int pointsB){
+        checkRange("set", set, 255);
+        checkRange("games", gamesA, 255);
+        checkRange("games", gamesB, 255);
+        checkRange("points", pointsA, POINTS.length - 1);
+        checkRange("points", pointsB, POINTS.length - 1);
+        return ((long) set << 32) | ((long) gamesA << 24) | (gamesB << 16) | (pointsA << 8) | pointsB;
+    }
+
+    static int set(long score){
+        return (int) (score >>> 32) & 0xFF;
+    }
+
+    static int gamesA(long score){
+        return (int) (score >>> 24) & 0xFF;
+    }
+
+    static int gamesB(long score){
+        return (int) (score >>> 16) & 0xFF;
+    }
+
+    static int pointsA(long score){
+        return (int) (score >>> 8) & 0xFF;
+    }
+
+    static int pointsB(long score){
+        return (int) score & 0xFF;
+    }
+
+    /**
+     * @return the score in the "SET1##0-0##15-30" format
+     */
+    static String toString(long score){
+        if (score == UNKNOWN){
+            return "Unknown score";
+        }
+        return SET_PREFIX + set(score)
+                + SEPARATOR + gamesA(score) + "-" + gamesB(score)
+                + SEPARATOR + POINTS[pointsA(score)] + "-" + POINTS[pointsB(score)];
+    }
+
+    /**
+     * @param score score in the "SET1##0-0##15-30" format
+     * @return the packed score, {@link #UNKNOWN} if the string is in another format
+     */
+    static long parse(String score){
+        if (score == null || !score.startsWith(SET_PREFIX)){
+            return UNKNOWN;
+        }
+        String[] parts = score.substring(SET_PREFIX.length()).split(SEPARATOR);
+        if (parts.length != 3){
+            return UNKNOWN;
+        }
+        try {
+            int set = Integer.parseInt(parts[0]);
+            String[] games = parts[1].split("-");
+            String[] points = parts[2].split("-");
+            if (games.length != 2 || points.length != 2){
+                return UNKNOWN;
+            }
+            int pointsA = pointIndex(points[0]);
+            int pointsB = pointIndex(points[1]);
+            if (pointsA < 0 || pointsB < 0){
+                return UNKNOWN;
+            }
+            return pack(set, Integer.parseInt(games[0]), Integer.parseInt(games[1]), pointsA, pointsB);
+        } catch (IllegalArgumentException e){
+            // covers NumberFormatException too
+            return UNKNOWN;
+        }
+    }
+
+    /**
+     * Writes the score at the buffer's position and advances it. Allocates nothing, so scores
+     * can be written straight into a direct buffer that goes out to other processes.
+     */
+    static void encode(ByteBuffer buffer, long score){
+        buffer.putLong(score);
+    }
+
+    /**
+     * Writes the score at the given index, leaving the buffer's position as is.
+     */
+    static void encode(ByteBuffer buffer, int index, long score){
+        buffer.putLong(index, score);
+    }
+
+    /**
+     * Reads a score at the buffer's position and advances it.
+     */
+    static long decode(ByteBuffer buffer){
+        return buffer.getLong();
+    }
+
+    static long decode(ByteBuffer buffer, int index){
+        return buffer.getLong(index);
+    }
+
+    private static int pointIndex(String points){
+        for (int i = 0; i < POINTS.length; i++){
+            if (POINTS[i].equals(points)){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void checkRange(String field, int value, int max){
+        if (value < 0 || value > max){
+            throw new IllegalArgumentException(field + " out of range : " + value);
+        }
+    }
+}
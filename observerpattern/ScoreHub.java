@@ -0,0 +1,186 @@
+package observerpattern;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Observable hub for many matches at once, keyed by topic (e.g. "wimbledon/centre-court/1").
+ *
+ * Each topic is hashed to one of a fixed number of partitions, and each partition has a single
+ * thread that publishes its topics' updates. So updates of one match always reach subscribers
+ * in order, while matches on different partitions are published in parallel.
+ *
+ * Subscriptions are either to an exact topic or to a wildcard : "wimbledon/*" matches every topic
+ * that starts with "wimbledon/", and "*" matches all topics. A topic's registry is dropped with
+ * its last subscription, so finished matches don't pile up.
+ */
+class ScoreHub {
+
+    /**
+     * Subscriber of the hub. Pushed the topic and the score, or an error message.
+     */
+    interface ScoreSubscriber {
+        void onScore(String topic, String score);
+
+        default void onError(String topic, String errorMessage) {
+        }
+    }
+
+    static final String WILDCARD = "*";
+
+    private final ExecutorService[] partitions;
+
+    // exact topic subscriptions
+    private final Map<String, ObserverRegistry<ScoreSubscriber>> topicSubscribers = new ConcurrentHashMap<>();
+
+    // wildcard subscriptions, by prefix ("" for "*"). Few of them, so they are matched one by one
+    private final Map<String, ObserverRegistry<ScoreSubscriber>> wildcardSubscribers = new ConcurrentHashMap<>();
+
+    // prefixes of wildcardSubscribers, for the publish path
+    private final CopyOnWriteArrayList<String> wildcardPrefixes = new CopyOnWriteArrayList<>();
+
+    // updates that a subscriber threw on
+    private final LongAdder subscriberFailures = new LongAdder();
+
+    /**
+     * @param partitionCount number of publishing threads, usually the number of cores
+     */
+    ScoreHub(int partitionCount){
+        partitions = new ExecutorService[partitionCount];
+        for (int i = 0; i < partitionCount; i++){
+            final int partition = i;
+            partitions[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "score-hub-partition-" + partition);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @param topic exact topic, or a pattern ending in {@link #WILDCARD}
+     * @return handle to pass to {@link #unsubscribe(String, ObserverRegistry.Handle)}
+     */
+    ObserverRegistry.Handle<ScoreSubscriber> subscribe(String topic, ScoreSubscriber subscriber){
+        if (topic.endsWith(WILDCARD)){
+            String prefix = prefixOf(topic);
+            ObserverRegistry.Handle<ScoreSubscriber> handle = register(wildcardSubscribers, prefix, subscriber);
+            // only once the registry is in the map. The registry can't be dropped before, as it
+            // isn't empty until the handle is unsubscribed
+            wildcardPrefixes.addIfAbsent(prefix);
+            return handle;
+        }
+        return register(topicSubscribers, topic, subscriber);
+    }
+
+    /**
+     * Removes the subscription, and the topic's registry if it was the last one.
+     * Does nothing if it is already removed.
+     * @param topic topic or pattern it was subscribed with
+     */
+    void unsubscribe(String topic, ObserverRegistry.Handle<ScoreSubscriber> handle){
+        handle.remove();
+        if (topic.endsWith(WILDCARD)){
+            String prefix = prefixOf(topic);
+            wildcardSubscribers.computeIfPresent(prefix, (key, registry) -> {
+                if (registry.size() > 0){
+                    return registry;
+                }
+                wildcardPrefixes.remove(key);
+                return null;
+            });
+        }
+        else {
+            topicSubscribers.computeIfPresent(topic, (key, registry) -> registry.size() > 0 ? registry : null);
+        }
+    }
+
+    // registers within compute, so that unsubscribe can't drop the registry in between
+    private static ObserverRegistry.Handle<ScoreSubscriber> register(Map<String, ObserverRegistry<ScoreSubscriber>> registries,
+                                                                     String key, ScoreSubscriber subscriber){
+        AtomicReference<ObserverRegistry.Handle<ScoreSubscriber>> handle = new AtomicReference<>();
+        registries.compute(key, (topic, registry) -> {
+            if (registry == null){
+                registry = new ObserverRegistry<>();
+            }
+            handle.set(registry.register(subscriber));
+            return registry;
+        });
+        return handle.get();
+    }
+
+    private static String prefixOf(String pattern){
+        return pattern.substring(0, pattern.length() - WILDCARD.length());
+    }
+
+    /**
+     * Queues the score update on the topic's partition and returns right away.
+     * @param score current score, null for an error
+     */
+    void updateScore(final String topic, final String score){
+        partitions[partitionOf(topic)].execute(() -> publish(topic, score));
+    }
+
+    private void publish(final String topic, final String score){
+        Consumer<ScoreSubscriber> notifier = subscriber -> {
+            // a failing subscriber must not keep the others from their update
+            try {
+                if (score != null){
+                    subscriber.onScore(topic, score);
+                }
+                else {
+                    subscriber.onError(topic, "Error while fetching score");
+                }
+            } catch (RuntimeException e){
+                subscriberFailures.increment();
+            }
+        };
+        ObserverRegistry<ScoreSubscriber> subscribers = topicSubscribers.get(topic);
+        if (subscribers != null){
+            subscribers.forEach(notifier);
+        }
+        for (String prefix : wildcardPrefixes){
+            if (topic.startsWith(prefix)){
+                // null if the last subscription was just removed
+                ObserverRegistry<ScoreSubscriber> wildcard = wildcardSubscribers.get(prefix);
+                if (wildcard != null){
+                    wildcard.forEach(notifier);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of updates that a subscriber threw on, the other subscribers still got them
+     */
+    long subscriberFailures(){
+        return subscriberFailures.sum();
+    }
+
+    int partitionOf(String topic){
+        // spread the hash bits, as topics of one event tend to share long prefixes
+        int hash = topic.hashCode();
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions.length);
+    }
+
+    /**
+     * Publishes the updates that are already queued, then stops the partitions.
+     */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService partition : partitions){
+            partition.shutdown();
+        }
+        for (ExecutorService partition : partitions){
+            partition.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package observerpattern;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the aggregate score updates per second of a {@link ScoreHub} as the number of
+ * partitions and publishing threads grows.
+ *
+ * Every match has its own subscribers, and one more subscriber listens to all matches through
+ * a wildcard. Subscribers check that the updates of each match arrive in order.
+ *
+ * Usage : ScoreHubBenchmark [matches] [subscribers per match] [updates per match]
+ */
+public class ScoreHubBenchmark {
+
+    /**
+     * Checks the order of the updates of one match, scores are increasing sequence numbers.
+     */
+    private static class OrderCheckingSubscriber implements ScoreHub.ScoreSubscriber {
+
+        private long lastScore = -1;
+
+        @Override
+        public void onScore(String topic, String score) {
+            long value = Long.parseLong(score);
+            if (value <= lastScore){
+                throw new IllegalStateException("Out of order update on " + topic + " : " + value + " after " + lastScore);
+            }
+            lastScore = value;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int subscribersPerMatch = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int updatesPerMatch = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.println(String.format("%d matches, %d subscribers each, %d updates per match",
+                matches, subscribersPerMatch, updatesPerMatch));
+        for (int partitions = 1; partitions <= cores; partitions *= 2){
+            run(partitions, partitions, matches, subscribersPerMatch, updatesPerMatch);
+        }
+    }
+
+    private static void run(int partitions, int publishers, final int matches, int subscribersPerMatch,
+                            final int updatesPerMatch) throws InterruptedException {
+        final ScoreHub hub = new ScoreHub(partitions);
+        final String[] topics = new String[matches];
+        for (int m = 0; m < matches; m++){
+            topics[m] = "tournament/court-" + m;
+            for (int s = 0; s < subscribersPerMatch; s++){
+                hub.subscribe(topics[m], new OrderCheckingSubscriber());
+            }
+        }
+        final AtomicLong deliveries = new AtomicLong();
+        hub.subscribe("tournament/*", (topic, score) -> deliveries.incrementAndGet());
+
+        long start = System.nanoTime();
+        Thread[] threads = new Thread[publishers];
+        for (int p = 0; p < publishers; p++){
+            final int publisher = p;
+            // each publisher owns a slice of the matches, so every match has one feed
+            threads[p] = new Thread(() -> {
+                for (int update = 0; update < updatesPerMatch; update++){
+                    String score = Integer.toString(update);
+                    for (int m = publisher; m < matches; m += publishers){
+                        hub.updateScore(topics[m], score);
+                    }
+                }
+            });
+            threads[p].start();
+        }
+        for (Thread thread : threads){
+            thread.join();
+        }
+        hub.shutdown(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        long updates = (long) matches * updatesPerMatch;
+        if (deliveries.get() != updates){
+            throw new IllegalStateException("Expected " + updates + " wildcard deliveries, got " + deliveries.get());
+        }
+        System.out.println(String.format("%2d partitions, %2d publishers : %.3e updates/s",
+                partitions, publishers, updates * 1e9 / elapsed));
+    }
+}
@@ -0,0 +1,324 @@
+package observerpattern;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only journal of the score updates of a match, so that late subscribers can catch up
+ * and stats can be rebuilt after a crash.
+ *
+ * Every update gets the next offset, starting at 0. An update is a packed score (see
+ * {@link Score}), a free-form score that doesn't pack, kept as its text, or an error, kept with
+ * its message. The latest updates are kept in a ring buffer. When the ring wraps around, the
+ * overwritten updates can spill to a file, in which the update at offset n is the long at
+ * byte n * 8. Spilled updates are written in batches, not one by one. Texts go to a second
+ * file next to it, and the spilled long of a text update holds the text's position in there.
+ *
+ * The spill file is appended to across restarts : a journal opened on an existing file
+ * carries on after its last update, and all of them can still be replayed. {@link #flush()}
+ * and {@link #close()} write the updates still in the ring too.
+ *
+ * Replay hands updates to the handler in batches, so catching up on 100k updates takes
+ * a few dozen calls rather than 100k.
+ */
+class ScoreJournal implements Closeable {
+
+    /**
+     * Journaled instead of a score when fetching the score failed.
+     */
+    static final long ERROR = Long.MIN_VALUE;
+
+    /**
+     * Receives replayed updates.
+     */
+    interface ScoreEventHandler {
+
+        /**
+         * @param firstOffset offset of scores[0]
+         * @param scores packed scores, {@link Score#UNKNOWN} for a free-form score or {@link #ERROR}.
+         *               Reused after the call returns
+         * @param texts the text of free-form scores and the message of errors, null for packed scores.
+         *              Reused after the call returns
+         * @param count number of valid entries in scores and texts
+         */
+        void onEvents(long firstOffset, long[] scores, String[] texts, int count);
+    }
+
+    private static final int REPLAY_BATCH = 4096;
+
+    private static final int SPILL_BATCH = 8192;
+
+    // a spilled long with these top bits set holds the position of its text in the text file
+    private static final long TEXT_TAG_MASK = 0xC000_0000_0000_0000L;
+    private static final long ERROR_TAG = 0x8000_0000_0000_0000L;
+    private static final long FREE_TEXT_TAG = 0xC000_0000_0000_0000L;
+    // a free-form score without text spills as all ones, i.e. Score.UNKNOWN
+    private static final long NO_TEXT = ~TEXT_TAG_MASK;
+
+    private final long[] ring;
+
+    // text of each ring entry, null for packed scores
+    private final String[] ringTexts;
+
+    private final int mask;
+
+    // null when spilling is off
+    private final FileChannel spillFile;
+
+    private final FileChannel textFile;
+
+    // evicted updates not yet written to the spill file
+    private final ByteBuffer spillBuffer;
+
+    // guarded by this. Offset of the next update
+    private long nextOffset;
+
+    // guarded by this. Oldest update in the ring
+    private long ringStart;
+
+    // guarded by this. Updates below this offset are in the spill file
+    private long spilledOffset;
+
+    // guarded by this. End of the text file
+    private long textPosition;
+
+    /**
+     * @param capacity updates kept in memory, rounded up to a power of two
+     * @param spillPath file for the updates that no longer fit in memory, null to drop them.
+     *                  Updates already in the file are kept, the journal carries on after them
+     */
+    ScoreJournal(int capacity, Path spillPath) throws IOException {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        ring = new long[size];
+        ringTexts = new String[size];
+        mask = size - 1;
+        if (spillPath != null){
+            spillFile = FileChannel.open(spillPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            textFile = FileChannel.open(spillPath.resolveSibling(spillPath.getFileName() + ".text"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            spillBuffer = ByteBuffer.allocateDirect(SPILL_BATCH * Long.BYTES);
+            // a torn last update is dropped, the next one overwrites it
+            spilledOffset = spillFile.size() / Long.BYTES;
+            textPosition = textFile.size();
+            nextOffset = spilledOffset;
+            ringStart = spilledOffset;
+        }
+        else {
+            spillFile = null;
+            textFile = null;
+            spillBuffer = null;
+        }
+    }
+
+    /**
+     * @return a replayed update in readable form
+     */
+    static String describe(long score, String text){
+        if (score == ERROR){
+            return "error, " + text;
+        }
+        return score == Score.UNKNOWN ? text : Score.toString(score);
+    }
+
+    /**
+     * @param score packed score, or {@link #ERROR}
+     * @return offset of the update
+     */
+    long append(long score) throws IOException {
+        return append(score, null);
+    }
+
+    /**
+     * @param score packed score, {@link Score#UNKNOWN} for a free-form score, or {@link #ERROR}
+     * @param text text of a free-form score, message of an error, ignored for a packed score
+     * @return offset of the update
+     */
+    synchronized long append(long score, String text) throws IOException {
+        long offset = nextOffset;
+        if (offset - ringStart == ring.length){
+            // about to overwrite the oldest update
+            if (spillFile != null && ringStart == spilledOffset + spillBuffer.position() / Long.BYTES){
+                spill(ringStart);
+            }
+            ringStart++;
+        }
+        int index = (int) offset & mask;
+        ring[index] = score;
+        ringTexts[index] = score >= 0 ? null : text;
+        nextOffset = offset + 1;
+        return offset;
+    }
+
+    /**
+     * @return offset that the next update will get
+     */
+    synchronized long nextOffset(){
+        return nextOffset;
+    }
+
+    /**
+     * @return the oldest offset that can still be replayed
+     */
+    synchronized long firstOffset(){
+        return spillFile != null ? 0 : ringStart;
+    }
+
+    /**
+     * Writes all updates to the spill file, the ones still in the ring as well.
+     * Does nothing when spilling is off.
+     */
+    synchronized void flush() throws IOException {
+        if (spillFile == null){
+            return;
+        }
+        for (long offset = spilledOffset + spillBuffer.position() / Long.BYTES; offset < nextOffset; offset++){
+            spill(offset);
+        }
+        flushSpill();
+    }
+
+    /**
+     * Hands all updates from the given offset up to the latest one to the handler, in order.
+     * Updates appended during the replay are replayed as well.
+     * @param fromOffset first update to replay, moved up to {@link #firstOffset()} if it is older
+     * @return offset after the last replayed update, to resume from
+     */
+    long replay(long fromOffset, ScoreEventHandler handler) throws IOException {
+        long[] batch = new long[REPLAY_BATCH];
+        String[] texts = new String[REPLAY_BATCH];
+        ByteBuffer readBuffer = null;
+        long offset = Math.max(fromOffset, firstOffset());
+        while (true){
+            int count;
+            long firstInRing;
+            synchronized (this){
+                if (offset >= nextOffset){
+                    return offset;
+                }
+                firstInRing = ringStart;
+                if (offset >= firstInRing){
+                    count = (int) Math.min(REPLAY_BATCH, nextOffset - offset);
+                    for (int i = 0; i < count; i++){
+                        int index = (int) (offset + i) & mask;
+                        batch[i] = ring[index];
+                        texts[i] = ringTexts[index];
+                    }
+                }
+                else {
+                    // the files are only appended to, so they can be read without the lock
+                    flushSpill();
+                    count = -1;
+                }
+            }
+            if (count < 0){
+                if (spillFile == null){
+                    // overwritten while we were replaying, skip ahead
+                    offset = firstInRing;
+                    continue;
+                }
+                if (readBuffer == null){
+                    readBuffer = ByteBuffer.allocate(REPLAY_BATCH * Long.BYTES);
+                }
+                count = readSpill(offset, (int) Math.min(REPLAY_BATCH, firstInRing - offset), batch, texts, readBuffer);
+            }
+            handler.onEvents(offset, batch, texts, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Writes all updates to the spill file and closes it.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (spillFile != null){
+            flush();
+            spillFile.close();
+            textFile.close();
+        }
+    }
+
+    // must be called while holding the lock. Adds the update at the offset to the spill buffer
+    private void spill(long offset) throws IOException {
+        int index = (int) offset & mask;
+        long score = ring[index];
+        if (score < 0){
+            String text = ringTexts[index];
+            long tag = score == ERROR ? ERROR_TAG : FREE_TEXT_TAG;
+            score = tag | (text == null ? NO_TEXT : writeText(text));
+        }
+        spillBuffer.putLong(score);
+        if (!spillBuffer.hasRemaining()){
+            flushSpill();
+        }
+    }
+
+    // must be called while holding the lock
+    private void flushSpill() throws IOException {
+        if (spillFile == null || spillBuffer.position() == 0){
+            return;
+        }
+        spillBuffer.flip();
+        long position = spilledOffset * Long.BYTES;
+        while (spillBuffer.hasRemaining()){
+            position += spillFile.write(spillBuffer, position);
+        }
+        spilledOffset = position / Long.BYTES;
+        spillBuffer.clear();
+    }
+
+    // must be called while holding the lock
+    // @return position of the text in the text file
+    private long writeText(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        record.putInt(bytes.length).put(bytes).flip();
+        long position = textPosition;
+        while (record.hasRemaining()){
+            textPosition += textFile.write(record, textPosition);
+        }
+        return position;
+    }
+
+    private String readText(long position) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+        readFully(textFile, length, position);
+        ByteBuffer bytes = ByteBuffer.allocate(length.getInt(0));
+        readFully(textFile, bytes, position + Integer.BYTES);
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    private int readSpill(long offset, int count, long[] batch, String[] texts, ByteBuffer readBuffer) throws IOException {
+        readBuffer.clear().limit(count * Long.BYTES);
+        readFully(spillFile, readBuffer, offset * Long.BYTES);
+        readBuffer.flip();
+        for (int i = 0; i < count; i++){
+            long score = readBuffer.getLong();
+            if (score >= 0 || score == Score.UNKNOWN){
+                batch[i] = score;
+                texts[i] = null;
+            }
+            else {
+                batch[i] = (score & TEXT_TAG_MASK) == ERROR_TAG ? ERROR : Score.UNKNOWN;
+                long position = score & ~TEXT_TAG_MASK;
+                texts[i] = position == NO_TEXT ? null : readText(position);
+            }
+        }
+        return count;
+    }
+
+    private static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()){
+            if (file.read(buffer, start + buffer.position()) < 0){
+                throw new IOException("Journal file ends before byte " + (start + buffer.limit()));
+            }
+        }
+    }
+}
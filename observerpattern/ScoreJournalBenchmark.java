@@ -0,0 +1,47 @@
+package observerpattern;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a subscriber joining mid-match takes to catch up on the journal.
+ *
+ * Appends the given number of score updates (100k by default) to a journal whose ring only
+ * holds a fraction of them, so most of the replay comes from the spill file.
+ *
+ * Usage : ScoreJournalBenchmark [updates] [ring capacity]
+ */
+public class ScoreJournalBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int updates = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 16_384;
+        Path spillPath = Files.createTempFile("score-journal", ".spill");
+        try (ScoreJournal journal = new ScoreJournal(capacity, spillPath)){
+            long expectedChecksum = 0;
+            for (int i = 0; i < updates; i++){
+                long score = Score.pack(1 + i / 10_000, (i / 100) % 7, (i / 700) % 7, i % 5, (i / 5) % 5);
+                journal.append(score);
+                expectedChecksum += score;
+            }
+            for (int round = 0; round < 3; round++){
+                final long[] checksum = new long[1];
+                long start = System.nanoTime();
+                long caughtUpTo = journal.replay(0, (firstOffset, scores, texts, count) -> {
+                    for (int i = 0; i < count; i++){
+                        checksum[0] += scores[i];
+                    }
+                });
+                long elapsed = System.nanoTime() - start;
+                if (checksum[0] != expectedChecksum){
+                    throw new IllegalStateException("Replayed updates don't match the appended ones");
+                }
+                System.out.println(String.format("Caught up on %d updates in %.2f ms", caughtUpTo, elapsed / 1e6));
+            }
+        } finally {
+            Files.deleteIfExists(spillPath);
+        }
+    }
+}
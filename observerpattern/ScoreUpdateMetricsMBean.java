@@ -0,0 +1,19 @@
+package observerpattern;
+
+/**
+ * JMX view of the metrics of one score observable. Latencies are in nanoseconds.
+ */
+public interface ScoreUpdateMetricsMBean {
+
+    long getUpdates();
+
+    /**
+     * Time from a score update until the last observer was notified.
+     * With async delivery, until the last mailbox took the notification.
+     */
+    long getUpdateToLastDeliveryP50Nanos();
+
+    long getUpdateToLastDeliveryP99Nanos();
+
+    long getUpdateToLastDeliveryMaxNanos();
+}
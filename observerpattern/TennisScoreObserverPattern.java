@@ -1,7 +1,21 @@
 package observerpattern;
 
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import javax.management.ObjectName;
 
 /**
  * Created by priyankvex on 15/5/17.
@@ -20,7 +34,7 @@ import java.util.List;
  */
 public class TennisScoreObserverPattern {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
 
         Observable scoreObservable = new TennisScoreObservable();
         // create the observers
@@ -41,12 +55,67 @@ public class TennisScoreObserverPattern {
         scoreObservable.removeObserver(oldSchoolScorePanelObserver);
         // new score update!
         scoreObservable.updateScore("40-40");
+
+        // deliver asynchronously, a slow stats engine no longer holds up the score panels
+        ExecutorService deliveryExecutor = Executors.newFixedThreadPool(2);
+        TennisScoreObservable asyncScoreObservable = new TennisScoreObservable();
+        asyncScoreObservable.enableAsyncDelivery(deliveryExecutor, 16, ObserverMailbox.OverflowPolicy.CONFLATE);
+        asyncScoreObservable.registerObserver(fancyScorePanelObserver);
+        asyncScoreObservable.registerObserver(gameStatsObserver);
+        asyncScoreObservable.updateScore("AD-40");
+        asyncScoreObservable.updateScore("GAME");
+        deliveryExecutor.shutdown();
+        deliveryExecutor.awaitTermination(1, TimeUnit.SECONDS);
+        System.out.println("Game stats delivery : " + asyncScoreObservable.getLagMetrics(gameStatsObserver));
+
+        // a burst of updates within one tick reaches the observers as a single notification
+        TennisScoreObservable conflatingScoreObservable = new TennisScoreObservable();
+        conflatingScoreObservable.enableConflation();
+        conflatingScoreObservable.registerObserver(gameStatsObserver);
+        conflatingScoreObservable.updateScore("SET1##0-0##15-0");
+        conflatingScoreObservable.updateScore("SET1##0-0##30-0");
+        conflatingScoreObservable.updateScore("SET1##0-0##40-0");
+        conflatingScoreObservable.flushConflatedUpdates();
+
+        // scores can be updated as packed longs, the panels get the string only when they ask for it
+        TennisScoreObservable packedScoreObservable = new TennisScoreObservable();
+        packedScoreObservable.registerObserver(fancyScorePanelObserver);
+        packedScoreObservable.updateScore(Score.pack(2, 3, 2, 4, 3));
+        // and fanned out to other processes without making any string at all
+        ByteBuffer outbound = ByteBuffer.allocateDirect(Score.ENCODED_SIZE);
+        Score.encode(outbound, 0, packedScoreObservable.getCurrentPackedScore());
+        System.out.println("Encoded score decodes to " + Score.toString(Score.decode(outbound, 0)));
+
+        // a journal lets late subscribers catch up, and stats be rebuilt from the updates
+        TennisScoreObservable journaledScoreObservable = new TennisScoreObservable();
+        journaledScoreObservable.enableJournal(new ScoreJournal(1024, null));
+        journaledScoreObservable.updateScore("SET1##0-0##15-0");
+        journaledScoreObservable.updateScore("Rain delay");
+        journaledScoreObservable.updateScore(null);
+        journaledScoreObservable.updateScore("SET1##0-0##15-15");
+        // the old school panel gets the updates it missed, then the live ones, none twice
+        journaledScoreObservable.subscribe(oldSchoolScorePanelObserver, 0, (firstOffset, scores, texts, count) -> {
+            for (int i = 0; i < count; i++){
+                System.out.println("Replayed update " + (firstOffset + i) + " : " + ScoreJournal.describe(scores[i], texts[i]));
+            }
+        });
+        journaledScoreObservable.updateScore("SET1##0-0##30-15");
+
+        // find out which observer is slow, the metrics can be watched live in JConsole too
+        TennisScoreObservable instrumentedScoreObservable = new TennisScoreObservable();
+        instrumentedScoreObservable.enableMetrics("final");
+        instrumentedScoreObservable.registerObserver(fancyScorePanelObserver);
+        instrumentedScoreObservable.registerObserver(gameStatsObserver);
+        instrumentedScoreObservable.updateScore("SET3##6-6##40-40");
+        instrumentedScoreObservable.updateScore(null);
+        System.out.println(instrumentedScoreObservable.getMetrics(fancyScorePanelObserver));
+        System.out.println(instrumentedScoreObservable.getMetrics(gameStatsObserver));
     }
 
     /**
      * Interface for the observable objects
      */
-    private interface Observable{
+    interface Observable{
         void registerObserver(Observer observer);
         void removeObserver(Observer observer);
         void updateScore(String score);
@@ -57,34 +126,386 @@ public class TennisScoreObserverPattern {
     /**
      * Interface for observer objects
      */
-    private interface Observer {
+    interface Observer {
         void update(Observable observable, String errorMessage);
+
+        /**
+         * Called instead of {@link #update(Observable, String)} when the observable conflates
+         * bursts of score updates into one notification.
+         * @param skippedUpdates number of score updates merged into this one, that were never notified
+         */
+        default void update(Observable observable, String errorMessage, int skippedUpdates) {
+            update(observable, errorMessage);
+        }
     }
 
     /**
      * Observable that emits tennis scores.
      * To qualify as observable it must implement the {@link Observable} interface
      */
-    private static class TennisScoreObservable implements Observable{
+    static class TennisScoreObservable implements Observable{
+
+        // the current score and its string form in one reference, so that they can't get out of
+        // sync. Atomic, as observers may pull the score from delivery threads
+        private final AtomicReference<RenderedScore> currentScore = new AtomicReference<>();
+
+        /**
+         * A score and its string form, kept together so that they can't get out of sync.
+         */
+        private static final class RenderedScore {
+
+            final long score;
+
+            // null until an observer first asks for it
+            final String text;
+
+            RenderedScore(long score, String text){
+                this.score = score;
+                this.text = text;
+            }
+        }
+
+        // what the notify path walks : the observers, or their mailboxes in async mode
+        private final ObserverRegistry<Observer> observers = new ObserverRegistry<>();
+
+        // registration of each observer, for removeObserver(Observer)
+        private final Map<Observer, ObserverRegistry.Handle<Observer>> registrations = new ConcurrentHashMap<>();
+
+        // async delivery settings, executor is null in synchronous mode
+        private volatile Executor deliveryExecutor;
+        private int mailboxCapacity;
+        private ObserverMailbox.OverflowPolicy overflowPolicy;
 
-        private String currentScore;
+        // notifies an observer without allocating a lambda on every score update
+        private final Consumer<Observer> pullNotifier = observer -> observer.update(this, null);
 
-        private List<Observer> observers;
+        // conflation is on while true, see enableConflation()
+        private volatile boolean conflating;
+
+        // score updates received since the last conflated notification
+        private final AtomicInteger pendingUpdates = new AtomicInteger();
+
+        // held while notifying in conflation mode, so that flushes from the scheduler and from
+        // the score feed are notified one after the other, in order
+        private final Object conflationLock = new Object();
+
+        // same as the notifiers above, timing each delivery when metrics are on
+        private final ObserverRegistry.LongFolder<Observer> timedPullNotifier =
+                (observer, start) -> deliverTimed(observer, null, 0, start);
+
+        // null when journaling is off
+        private volatile ScoreJournal journal;
+
+        // journal offset of the update being notified, -1 when journaling is off
+        private volatile long notifyingOffset = -1;
+
+        // name of the match in JMX, null when metrics are off
+        private volatile String metricsName;
+
+        private volatile ObserverMetrics.ScoreUpdateMetrics updateMetrics;
+
+        // JMX name of updateMetrics
+        private ObjectName updateMetricsName;
 
         TennisScoreObservable(){
-            currentScore = "SET1##0-0##0-0";
-            observers = new LinkedList<>();
+            currentScore.set(new RenderedScore(Score.pack(1, 0, 0, 0, 0), null));
+        }
+
+        /**
+         * Switches to asynchronous delivery. Each observer gets a bounded mailbox that is
+         * drained on the given executor, so a slow observer no longer stalls the score updates.
+         * Applies to the observers registered so far and to the ones registered later.
+         * @param executor executor that runs the observers, should be dedicated to them
+         * @param mailboxCapacity max notifications queued per observer
+         * @param overflowPolicy what to do when an observer's mailbox is full
+         */
+        void enableAsyncDelivery(Executor executor, int mailboxCapacity, ObserverMailbox.OverflowPolicy overflowPolicy){
+            this.mailboxCapacity = mailboxCapacity;
+            this.overflowPolicy = overflowPolicy;
+            this.deliveryExecutor = executor;
+            rewrapObservers();
+        }
+
+        /**
+         * Turns on delivery metrics : a latency histogram, error push and failure counts per
+         * observer, and the time from a score update to the last delivery. All of them are
+         * exposed as MBeans on the platform MBean server.
+         * Applies to the observers registered so far and to the ones registered later.
+         * Calling it again keeps the metrics collected so far, and moves the MBeans if the
+         * match name changed.
+         * @param matchName name of the match in the MBean object names
+         */
+        void enableMetrics(String matchName){
+            synchronized (registrations){
+                if (matchName.equals(metricsName)){
+                    return;
+                }
+                ObserverMetrics.ScoreUpdateMetrics metrics = updateMetrics;
+                if (metrics == null){
+                    metrics = new ObserverMetrics.ScoreUpdateMetrics();
+                }
+                if (updateMetricsName != null){
+                    ObserverMetrics.unregister(updateMetricsName);
+                }
+                updateMetricsName = ObserverMetrics.registerMBean(matchName, metrics);
+                this.updateMetrics = metrics;
+                this.metricsName = matchName;
+            }
+            rewrapObservers();
+        }
+
+        /**
+         * @return delivery metrics of the observer, null if metrics are off or it is not registered
+         */
+        ObserverMetrics getMetrics(Observer observer){
+            ObserverRegistry.Handle<Observer> handle = registrations.get(observer);
+            if (handle == null){
+                return null;
+            }
+            Observer target = handle.getItem();
+            if (target instanceof CatchUpObserver){
+                target = ((CatchUpObserver) target).getObserver();
+            }
+            if (target instanceof ObserverMailbox){
+                target = ((ObserverMailbox) target).getObserver();
+            }
+            if (target instanceof ObserverMetrics.InstrumentedObserver){
+                return ((ObserverMetrics.InstrumentedObserver) target).getMetrics();
+            }
+            return null;
+        }
+
+        ObserverMetrics.ScoreUpdateMetrics getUpdateMetrics(){
+            return updateMetrics;
+        }
+
+        // wraps all observers again as per the current settings, in place : they keep their
+        // order, their metrics, and get every notification
+        private void rewrapObservers(){
+            for (Map.Entry<Observer, ObserverRegistry.Handle<Observer>> registration : registrations.entrySet()){
+                Observer observer = registration.getKey();
+                ObserverRegistry.Handle<Observer> handle = registration.getValue();
+                Observer wrapped = wrap(observer, getMetrics(observer));
+                Observer current = handle.getItem();
+                if (current instanceof CatchUpObserver){
+                    // the gate stays, it may still be holding back live notifications
+                    ((CatchUpObserver) current).setObserver(wrapped);
+                }
+                else {
+                    handle.replace(wrapped);
+                }
+            }
+        }
+
+        /**
+         * @return how far the observer lags behind, null if it has no mailbox
+         */
+        ObserverMailbox.LagMetrics getLagMetrics(Observer observer){
+            ObserverRegistry.Handle<Observer> handle = registrations.get(observer);
+            if (handle == null){
+                return null;
+            }
+            Observer target = handle.getItem();
+            if (target instanceof CatchUpObserver){
+                target = ((CatchUpObserver) target).getObserver();
+            }
+            if (!(target instanceof ObserverMailbox)){
+                return null;
+            }
+            return ((ObserverMailbox) target).getLagMetrics();
+        }
+
+        /**
+         * Registers the observer, unless it is already registered.
+         * @return handle to remove the observer again in O(1)
+         */
+        ObserverRegistry.Handle<Observer> subscribe(Observer observer) {
+            return registrations.computeIfAbsent(observer, key -> observers.register(wrap(key, null)));
+        }
+
+        /**
+         * Wraps the observer as per the current settings : metrics first, then the mailbox, so
+         * that the metrics time the deliveries on the executor.
+         * @param metrics metrics the observer already has, null for new ones
+         */
+        private Observer wrap(Observer observer, ObserverMetrics metrics){
+            Observer target = observer;
+            String metricsName = this.metricsName;
+            if (metricsName != null){
+                if (metrics == null){
+                    metrics = new ObserverMetrics(observer.getClass().getSimpleName());
+                }
+                metrics.registerMBean(metricsName, observer);
+                target = new ObserverMetrics.InstrumentedObserver(observer, metrics);
+            }
+            Executor executor = deliveryExecutor;
+            if (executor != null){
+                target = new ObserverMailbox(target, executor, mailboxCapacity, overflowPolicy);
+            }
+            return target;
+        }
+
+        /**
+         * Registers the observer and, if asked to, catches it up instead of leaving it in the dark
+         * until the next update : observers that are also a {@link ScoreJournal.ScoreEventHandler}
+         * get the journaled updates replayed if journaling is on, the others are notified of the
+         * current score right away.
+         */
+        ObserverRegistry.Handle<Observer> subscribe(Observer observer, boolean catchUp) {
+            ScoreJournal journal = this.journal;
+            if (catchUp && journal != null && observer instanceof ScoreJournal.ScoreEventHandler){
+                try {
+                    return subscribe(observer, journal.firstOffset(), (ScoreJournal.ScoreEventHandler) observer);
+                } catch (IOException e){
+                    throw new UncheckedIOException("Could not replay the journal", e);
+                }
+            }
+            ObserverRegistry.Handle<Observer> handle = subscribe(observer);
+            if (catchUp){
+                // through the mailbox in async mode, so it is ordered with the live updates.
+                // The score is set before it is notified, so no update can fall in between
+                handle.getItem().update(this, null);
+            }
+            return handle;
+        }
+
+        /**
+         * Registers the observer, replays the journaled updates from the given offset to the handler,
+         * then hands over to live notifications. Every update reaches the observer exactly once :
+         * either replayed, or notified live after the replay.
+         * @param fromOffset first update to replay
+         * @param handler gets the replayed updates, in the calling thread
+         * @throws IllegalStateException if journaling is off or the observer is already registered
+         */
+        ObserverRegistry.Handle<Observer> subscribe(Observer observer, long fromOffset,
+                                                    ScoreJournal.ScoreEventHandler handler) throws IOException {
+            ScoreJournal journal = this.journal;
+            if (journal == null){
+                throw new IllegalStateException("Journal is not enabled");
+            }
+            CatchUpObserver[] created = new CatchUpObserver[1];
+            ObserverRegistry.Handle<Observer> handle = registrations.computeIfAbsent(observer, key -> {
+                created[0] = new CatchUpObserver(wrap(key, null));
+                return observers.register(created[0]);
+            });
+            CatchUpObserver gate = created[0];
+            if (gate == null){
+                throw new IllegalStateException("Observer is already registered");
+            }
+            try {
+                // registered first, so that no live update is missed while replaying
+                long offset = fromOffset;
+                do {
+                    offset = journal.replay(offset, handler);
+                } while (!gate.goLive(offset, journal));
+            } catch (IOException | RuntimeException e){
+                removeObserver(observer);
+                throw e;
+            }
+            return handle;
+        }
+
+        /**
+         * Holds back the live notifications of an observer that is being caught up from the journal.
+         * The ones of updates that the replay covers are dropped.
+         */
+        private final class CatchUpObserver implements Observer {
+
+            private volatile Observer target;
+
+            // guarded by this. Updates from this offset on are notified
+            private long liveFromOffset = Long.MAX_VALUE;
+
+            CatchUpObserver(Observer target){
+                this.target = target;
+            }
+
+            Observer getObserver(){
+                return target;
+            }
+
+            void setObserver(Observer target){
+                this.target = target;
+            }
+
+            /**
+             * Switches to live notifications from the offset, unless updates were journaled past it
+             * @return false if there is more to replay first
+             */
+            synchronized boolean goLive(long offset, ScoreJournal journal){
+                if (offset < journal.nextOffset()){
+                    return false;
+                }
+                liveFromOffset = offset;
+                return true;
+            }
+
+            @Override
+            public void update(Observable observable, String errorMessage){
+                update(observable, errorMessage, 0);
+            }
+
+            @Override
+            public synchronized void update(Observable observable, String errorMessage, int skippedUpdates){
+                if (notifyingOffset >= liveFromOffset){
+                    target.update(observable, errorMessage, skippedUpdates);
+                }
+            }
         }
 
         @Override
         public void registerObserver(Observer observer) {
-            observers.add(observer);
+            subscribe(observer);
         }
 
+        /**
+         * Journals every score update from now on, see {@link #replay(long, ScoreJournal.ScoreEventHandler)}.
+         */
+        void enableJournal(ScoreJournal journal){
+            this.journal = journal;
+        }
+
+        /**
+         * Replays journaled score updates, e.g. to rebuild stats or to catch up a late subscriber.
+         * @return offset to resume from
+         * @throws IllegalStateException if journaling is off
+         */
+        long replay(long fromOffset, ScoreJournal.ScoreEventHandler handler) throws IOException {
+            ScoreJournal journal = this.journal;
+            if (journal == null){
+                throw new IllegalStateException("Journal is not enabled");
+            }
+            return journal.replay(fromOffset, handler);
+        }
+
+        /**
+         * Journals the update, and marks it as the one being notified.
+         * @param text see {@link ScoreJournal#append(long, String)}
+         */
+        private void journal(long score, String text){
+            ScoreJournal journal = this.journal;
+            if (journal != null){
+                try {
+                    notifyingOffset = journal.append(score, text);
+                } catch (IOException e){
+                    throw new UncheckedIOException("Could not journal score " + ScoreJournal.describe(score, text), e);
+                }
+            }
+        }
+
+        /**
+         * Removes the observer. Does nothing if it is not registered.
+         */
         @Override
         public void removeObserver(Observer observer) {
-            int position = observers.indexOf(observer);
-            observers.remove(position);
+            ObserverMetrics metrics = getMetrics(observer);
+            ObserverRegistry.Handle<Observer> handle = registrations.remove(observer);
+            if (handle != null){
+                handle.remove();
+            }
+            if (metrics != null){
+                metrics.unregisterMBean();
+            }
         }
 
         /**
@@ -92,10 +513,12 @@ public class TennisScoreObserverPattern {
          */
         @Override
         public void notifyObservers() {
-            for (Observer observer : observers){
-                // observers will pull the data from the observer when notified
-                observer.update(this, null);
+            if (updateMetrics != null){
+                notifyTimed(timedPullNotifier);
+                return;
             }
+            // observers will pull the data from the observer when notified
+            observers.forEach(pullNotifier);
         }
 
         /**
@@ -104,14 +527,119 @@ public class TennisScoreObserverPattern {
          */
         @Override
         public void notifyObservers(String errorMessage) {
-            for (Observer observer : observers){
-                // push the error message to all the observers
-                observer.update(this, errorMessage);
+            if (updateMetrics != null){
+                notifyTimed((observer, start) -> deliverTimed(observer, errorMessage, 0, start));
+                return;
+            }
+            // push the error message to all the observers
+            observers.forEach(observer -> observer.update(this, errorMessage));
+        }
+
+        /**
+         * Delivers to one observer, starting its delivery time at the end of the previous one.
+         * @return end of this delivery
+         */
+        private long deliverTimed(Observer target, String errorMessage, int skippedUpdates, long start){
+            if (target instanceof ObserverMetrics.InstrumentedObserver){
+                return ((ObserverMetrics.InstrumentedObserver) target).deliver(this, errorMessage, skippedUpdates, start);
+            }
+            // a mailbox, the delivery is timed when the mailbox is drained
+            target.update(this, errorMessage, skippedUpdates);
+            return start;
+        }
+
+        /**
+         * Walks the observers with the given timed notifier and records the time from
+         * the update to the end of the last delivery.
+         */
+        private void notifyTimed(ObserverRegistry.LongFolder<Observer> timedNotifier){
+            ObserverMetrics.ScoreUpdateMetrics metrics = updateMetrics;
+            long start = System.nanoTime();
+            long end = observers.fold(start, timedNotifier);
+            if (end == start){
+                // only mailboxes, this is the time to hand the update over to them
+                end = System.nanoTime();
+            }
+            if (metrics != null){
+                metrics.recordUpdate(end - start);
             }
         }
 
+        /**
+         * Turns on conflation, driven by ticks : score updates only set the latest score, and
+         * observers are notified once per call of {@link #flushConflatedUpdates()}.
+         */
+        void enableConflation(){
+            conflating = true;
+        }
+
+        /**
+         * Turns on conflation over a time window : all score updates within a window are merged
+         * into one notification with the latest score, sent at the end of the window.
+         * @return the scheduled flush, cancel it to stop flushing
+         */
+        ScheduledFuture<?> enableConflation(ScheduledExecutorService scheduler, long window, TimeUnit unit){
+            conflating = true;
+            return scheduler.scheduleAtFixedRate(this::flushConflatedUpdates, window, window, unit);
+        }
+
+        /**
+         * Notifies observers of the latest score if it changed since the last flush.
+         * Observers also get the number of updates they never saw.
+         * Can be called from any thread, flushes don't overlap.
+         */
+        void flushConflatedUpdates(){
+            synchronized (conflationLock){
+                int updates = pendingUpdates.getAndSet(0);
+                if (updates > 0){
+                    // once per flush rather than per update, so the lambdas are cheap enough
+                    int skippedUpdates = updates - 1;
+                    if (updateMetrics != null){
+                        notifyTimed((observer, start) -> deliverTimed(observer, null, skippedUpdates, start));
+                    }
+                    else {
+                        observers.forEach(observer -> observer.update(this, null, skippedUpdates));
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the current score as a string. Rendered once per score update, when
+         * an observer first asks for it.
+         */
         String getCurrentScore() {
-            return currentScore;
+            RenderedScore current = currentScore.get();
+            if (current.text != null){
+                return current.text;
+            }
+            RenderedScore rendered = new RenderedScore(current.score, Score.toString(current.score));
+            // fails if the score was updated meanwhile, the newer score is left alone
+            currentScore.compareAndSet(current, rendered);
+            return rendered.text;
+        }
+
+        /**
+         * @return the current score packed as in {@link Score}, for observers that need numbers
+         */
+        long getCurrentPackedScore() {
+            return currentScore.get().score;
+        }
+
+        /**
+         * Updates the score without any string handling.
+         * @param score score packed as in {@link Score}
+         */
+        void updateScore(long score) {
+            // set before journaling, so that an observer caught up from the journal can't miss it
+            this.currentScore.set(new RenderedScore(score, null));
+            journal(score, null);
+            if (conflating){
+                pendingUpdates.incrementAndGet();
+            }
+            else {
+                this.notifyObservers();
+            }
         }
 
         /**
@@ -122,11 +650,31 @@ public class TennisScoreObserverPattern {
         @Override
         public void updateScore(String currentScore) {
             if (currentScore == null){
-                this.notifyObservers("Error while fetching score");
+                journal(ScoreJournal.ERROR, "Error while fetching score");
+                if (conflating){
+                    // observers see the last good score before the error, and a flush
+                    // from the scheduler can't slip in between
+                    synchronized (conflationLock){
+                        flushConflatedUpdates();
+                        this.notifyObservers("Error while fetching score");
+                    }
+                }
+                else {
+                    this.notifyObservers("Error while fetching score");
+                }
             }
             else {
-                this.currentScore = currentScore;
-                this.notifyObservers();
+                long score = Score.parse(currentScore);
+                // keep the text, free form scores like "30-40" can't be rendered from UNKNOWN
+                this.currentScore.set(new RenderedScore(score, currentScore));
+                journal(score, currentScore);
+                if (conflating){
+                    // the next flush notifies the observers
+                    pendingUpdates.incrementAndGet();
+                }
+                else {
+                    this.notifyObservers();
+                }
             }
         }
     }
@@ -137,6 +685,17 @@ public class TennisScoreObserverPattern {
      */
     private static class GameStatsObserver implements Observer {
 
+        /**
+         * Stats only need the latest score, but should know how many updates were merged.
+         */
+        @Override
+        public void update(Observable observable, String errorMessage, int skippedUpdates) {
+            update(observable, errorMessage);
+            if (errorMessage == null && skippedUpdates > 0){
+                System.out.println(skippedUpdates + " score updates were conflated");
+            }
+        }
+
         @Override
         public void update(Observable observable, String errorMessage) {
             if (errorMessage == null){
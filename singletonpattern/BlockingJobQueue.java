@@ -0,0 +1,321 @@
+package singletonpattern;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thread safe, bounded priority queue of {@link Job}s that backs the singleton JobQueue classes.
+ *
+ * A singleton is only as thread safe as the state it hands out. A plain
+ * {@link java.util.PriorityQueue} gets corrupted when many threads call add() at the same time,
+ * so every access to the heap goes through one lock here. A single heap (and hence a single lock)
+ * is needed to keep a global priority order; the critical sections are kept down to the heap
+ * operation itself.
+ *
+ * Jobs are parked in a fixed slot table and the heap only orders primitive keys, the
+ * job priority and an insertion sequence, so jobs of equal priority come out in FIFO order.
+ * All arrays are sized to the capacity up front, so offer and take allocate nothing.
+ *
+ * Optionally, a {@link JobWriteAheadLog} can be attached to keep the queued jobs across restarts.
+ * A job then stays in the log until it is passed to {@link #acknowledge(Job)} once handled, so
+ * a job that was taken but not handled before a crash is recovered too.
+ *
+ * When the queue is full, producers are handled as per the {@link OverflowPolicy}.
+ * Consumers use {@link #take()} or {@link #poll(long, TimeUnit)}.
+ */
+public class BlockingJobQueue {
+
+    /**
+     * What to do with a new job when the queue is already at capacity.
+     */
+    public enum OverflowPolicy {
+        // wait until a consumer makes room
+        BLOCK,
+        // silently discard the new job, offer() returns false
+        DROP,
+        // throw an IllegalStateException back to the producer
+        REJECT
+    }
+
+    private final LongHeap heap;
+
+    // jobs waiting in the queue, indexed by the heap values
+    private final Job[] slots;
+
+    // stack of free indexes into slots
+    private final int[] freeSlots;
+
+    private int freeSlotCount;
+
+    // insertion counter, a long so that it doesn't wrap around and break the FIFO order
+    private long sequence;
+
+    // guarded by lock, null when persistence is off
+    private JobWriteAheadLog log;
+
+    // guarded by lock. Jobs recovered from the log beyond the capacity, they move into the
+    // heap as consumers make room
+    private final ArrayDeque<Job> recovered = new ArrayDeque<>();
+
+    private final int capacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    private final Condition notFull = lock.newCondition();
+
+    public BlockingJobQueue(int capacity, OverflowPolicy overflowPolicy){
+        if (capacity <= 0){
+            throw new IllegalArgumentException("capacity must be positive : " + capacity);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.heap = new LongHeap(capacity);
+        this.slots = new Job[capacity];
+        this.freeSlots = new int[capacity];
+        for (int i = 0; i < capacity; i++){
+            freeSlots[i] = capacity - 1 - i;
+        }
+        this.freeSlotCount = capacity;
+    }
+
+    /**
+     * Adds a job to the queue, applying the overflow policy if the queue is full.
+     * @param job the job, must not be null
+     * @return true if the job was queued, false if it was dropped
+     * @throws InterruptedException if interrupted while waiting under {@link OverflowPolicy#BLOCK}
+     */
+    public boolean offer(Job job) throws InterruptedException {
+        if (job == null){
+            throw new NullPointerException("job");
+        }
+        lock.lockInterruptibly();
+        try {
+            while (heap.size() == capacity){
+                switch (overflowPolicy){
+                    case BLOCK:
+                        notFull.await();
+                        break;
+                    case DROP:
+                        return false;
+                    default:
+                        throw new IllegalStateException("Job queue is full, rejected job " + job);
+                }
+            }
+            if (log != null){
+                log.append(job);
+            }
+            enqueue(job);
+            notEmpty.signal();
+            return true;
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not log job " + job, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Turns on persistence. Jobs left over in the log from an earlier run are queued again
+     * before any new job, and from now on every queued and acknowledged job is logged.
+     * Recovered jobs beyond the capacity wait until consumers make room, producers wait or
+     * are turned away as per the overflow policy until all of them are in.
+     * @return number of jobs recovered from the log
+     */
+    public int attachLog(JobWriteAheadLog log) throws IOException {
+        lock.lock();
+        try {
+            if (this.log != null){
+                throw new IllegalStateException("A log is already attached");
+            }
+            int recovered = log.replay(job -> {
+                if (heap.size() == capacity){
+                    this.recovered.addLast(job);
+                }
+                else {
+                    enqueue(job);
+                }
+            });
+            this.log = log;
+            if (recovered > 0){
+                notEmpty.signalAll();
+            }
+            return recovered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the head of the queue, waiting until a job is available.
+     */
+    public Job take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (heap.isEmpty()){
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the head of the queue, waiting up to the given time for a job to be available.
+     * @return the job, or null if the timeout elapsed first
+     */
+    public Job poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (heap.isEmpty()){
+                if (nanos <= 0L){
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a job that was taken off the queue as handled, so it is not recovered after a
+     * restart. Does nothing when persistence is off.
+     */
+    public void acknowledge(Job job){
+        lock.lock();
+        try {
+            if (log != null){
+                log.acknowledge(job);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not acknowledge job " + job, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queued jobs, including recovered jobs still waiting for room
+     */
+    public int size(){
+        lock.lock();
+        try {
+            return heap.size() + recovered.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity(){
+        return capacity;
+    }
+
+    public OverflowPolicy overflowPolicy(){
+        return overflowPolicy;
+    }
+
+    // must be called while holding the lock
+    private void enqueue(Job job){
+        int slot = freeSlots[--freeSlotCount];
+        slots[slot] = job;
+        // the sequence keeps equal priorities FIFO
+        heap.push(job.getPriority(), sequence++, slot);
+    }
+
+    // must be called while holding the lock
+    private Job dequeue(){
+        int slot = heap.pop();
+        Job job = slots[slot];
+        slots[slot] = null;
+        freeSlots[freeSlotCount++] = slot;
+        if (!recovered.isEmpty()){
+            // recovered jobs go first, the freed slot is not offered to producers
+            enqueue(recovered.pollFirst());
+        }
+        else {
+            notFull.signal();
+        }
+        return job;
+    }
+
+    /**
+     * Stress check : many producers and consumers hammer one queue, and we verify that
+     * every job that went in also came out exactly once.
+     */
+    public static void main(String[] args) throws Exception {
+        final int producers = 16;
+        final int consumers = 4;
+        final int jobsPerProducer = 50_000;
+        final BlockingJobQueue queue = new BlockingJobQueue(1024, OverflowPolicy.BLOCK);
+        final AtomicLongArray seen = new AtomicLongArray(producers * jobsPerProducer);
+        final AtomicInteger consumed = new AtomicInteger();
+
+        // taken after every real job, as no real job has a lower priority. One per consumer
+        final Job poison = new Job(-1, Integer.MAX_VALUE, "poison");
+
+        Thread[] threads = new Thread[producers + consumers];
+        for (int p = 0; p < producers; p++){
+            final int producer = p;
+            threads[p] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < jobsPerProducer; i++){
+                        if (!queue.offer(new Job(producer * jobsPerProducer + i, i % 8, null))){
+                            throw new AssertionError("Job rejected by a blocking queue");
+                        }
+                    }
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        for (int c = 0; c < consumers; c++){
+            threads[producers + c] = new Thread(() -> {
+                try {
+                    // waits as long as the producers take, a slow producer can't make us quit early
+                    Job job;
+                    while ((job = queue.take()) != poison){
+                        seen.incrementAndGet((int) job.getId());
+                        consumed.incrementAndGet();
+                    }
+                } catch (InterruptedException e){
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads){
+            thread.start();
+        }
+        for (int p = 0; p < producers; p++){
+            threads[p].join();
+        }
+        for (int c = 0; c < consumers; c++){
+            queue.offer(poison);
+        }
+        for (int c = 0; c < consumers; c++){
+            threads[producers + c].join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (int i = 0; i < seen.length(); i++){
+            if (seen.get(i) != 1){
+                throw new AssertionError("Job " + i + " was consumed " + seen.get(i) + " times");
+            }
+        }
+        System.out.println(String.format("%d jobs through %d producers / %d consumers in %d ms, none lost",
+                consumed.get(), producers, consumers, TimeUnit.NANOSECONDS.toMillis(elapsed)));
+    }
+}
@@ -1,7 +1,5 @@
 package singletonpattern;
 
-import java.util.PriorityQueue;
-
 /**
  * In this example we are going to implement a thread safe singleton pattern
  * using double check locking.
@@ -9,6 +7,9 @@ import java.util.PriorityQueue;
  * then we synchronize.
  * It saves us from synchronizing every time we all getInstance().
  *
+ * See {@link VarHandleSingleton} for a variant with weaker, cheaper memory ordering and
+ * {@link SingletonBenchmark} for numbers.
+ *
  * Created by priyankvex on 9/7/17.
  */
 public class DoubleCheckLockingSingleton {
@@ -21,10 +22,11 @@ public class DoubleCheckLockingSingleton {
          */
         private volatile static JobQueue instance;
 
-        private PriorityQueue<String> jobQueue;
+        // the same payload as the other variants, see JobQueueCore
+        private final JobQueueCore jobs;
 
         private JobQueue(){
-            jobQueue = new PriorityQueue<String>();
+            jobs = new JobQueueCore();
         }
 
         public static JobQueue getInstance(){
@@ -38,15 +40,24 @@ public class DoubleCheckLockingSingleton {
             return instance;
         }
 
-        public void addJob(String jobTag){
-            jobQueue.add(jobTag);
-            System.out.println(String.format("Job added with tag %s", jobTag));
+        /**
+         * @return the queue itself, to add and take jobs
+         */
+        public JobQueueCore jobs(){
+            return jobs;
         }
-
     }
 
-    public static void main(String[] args){
-        JobQueue jobQueue = JobQueue.getInstance();
-        jobQueue.addJob("job_tag_12334");
+    public static void main(String[] args) throws InterruptedException {
+        JobQueueCore jobs = JobQueue.getInstance().jobs();
+        jobs.addJob("job_tag_12334");
+        Job taggedJob = jobs.take();
+        System.out.println("Took job with tag " + taggedJob);
+        jobs.acknowledge(taggedJob);
+        jobs.addJob(42L, 1);
+        Job job = jobs.take();
+        System.out.println("Took pooled job with id " + job.getId());
+        jobs.acknowledge(job);
+        job.recycle();
     }
 }
@@ -1,6 +1,6 @@
 package singletonpattern;
 
-import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * In this example, we create the singleton object eagerly to achieve thread safety.
@@ -14,6 +14,8 @@ import java.util.PriorityQueue;
  * One drawback is lack of generics if you want that. As static variables can not be initialized by
  * generic types.
  *
+ * Run {@link SingletonBenchmark} to compare it against the other singleton variants.
+ *
  * Created by priyankvex on 9/7/17.
  */
 public class EagerSingleton {
@@ -26,27 +28,33 @@ public class EagerSingleton {
          */
         private static JobQueue instance = new JobQueue();
 
-        private PriorityQueue<String> jobQueue;
+        // the same payload as the other variants, see JobQueueCore
+        private final JobQueueCore jobs;
 
         private JobQueue(){
             // make the constructor private
-            jobQueue = new PriorityQueue<String>();
+            jobs = new JobQueueCore();
         }
 
         public static JobQueue getInstance(){
             return instance;
         }
 
-        public void addJob(String tag){
-            System.out.println("Job added with tag " + tag);
-            jobQueue.add(tag);
+        /**
+         * @return the queue itself, to add and take jobs
+         */
+        public JobQueueCore jobs(){
+            return jobs;
         }
     }
 
-    public static void main(String[] args){
+    public static void main(String[] args) throws InterruptedException {
 
-        JobQueue jobQueue = JobQueue.getInstance();
-        jobQueue.addJob("job_tag_123213");
+        JobQueueCore jobs = JobQueue.getInstance().jobs();
+        jobs.addJob("job_tag_123213");
+        Job job = jobs.poll(1, TimeUnit.SECONDS);
+        System.out.println("Took job with tag " + job);
+        jobs.acknowledge(job);
     }
 
 }
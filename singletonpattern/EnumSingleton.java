@@ -0,0 +1,41 @@
+package singletonpattern;
+
+/**
+ * In this example we implement the singleton as a single element enum.
+ *
+ * The JVM creates the enum constant when the enum class is initialized, so this is as thread
+ * safe as the eager singleton. On top of that, the JVM makes sure that no second instance can
+ * be created through serialization or reflection.
+ * The drawback is that an enum can not extend another class.
+ */
+public class EnumSingleton {
+
+    public enum JobQueue{
+
+        INSTANCE;
+
+        // the same payload as the other variants, see JobQueueCore
+        private final JobQueueCore jobs;
+
+        JobQueue(){
+            jobs = new JobQueueCore();
+        }
+
+        public static JobQueue getInstance(){
+            return INSTANCE;
+        }
+
+        /**
+         * @return the queue itself, to add and take jobs
+         */
+        public JobQueueCore jobs(){
+            return jobs;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        JobQueueCore jobs = JobQueue.getInstance().jobs();
+        jobs.addJob(new Job(1, Job.DEFAULT_PRIORITY, "job_tag_9001"));
+        System.out.println("Took job with tag " + jobs.take());
+    }
+}
@@ -0,0 +1,46 @@
+package singletonpattern;
+
+/**
+ * In this example we implement a lazy, thread safe singleton using the
+ * initialization-on-demand holder idiom.
+ *
+ * The instance lives in a nested holder class. The JVM initializes a class only when it is
+ * first used, and class initialization is guaranteed to be thread safe. So the instance is
+ * created on the first call of getInstance(), without any locking or volatile reads after that.
+ */
+public class HolderSingleton {
+
+    public static class JobQueue{
+
+        // the same payload as the other variants, see JobQueueCore
+        private final JobQueueCore jobs;
+
+        private JobQueue(){
+            jobs = new JobQueueCore();
+        }
+
+        /**
+         * Not loaded until getInstance() touches it.
+         */
+        private static class Holder {
+            private static final JobQueue INSTANCE = new JobQueue();
+        }
+
+        public static JobQueue getInstance(){
+            return Holder.INSTANCE;
+        }
+
+        /**
+         * @return the queue itself, to add and take jobs
+         */
+        public JobQueueCore jobs(){
+            return jobs;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        JobQueueCore jobs = JobQueue.getInstance().jobs();
+        jobs.addJob(new Job(1, Job.DEFAULT_PRIORITY, "job_tag_4242"));
+        System.out.println("Took job with tag " + jobs.take());
+    }
+}
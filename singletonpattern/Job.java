@@ -0,0 +1,75 @@
+package singletonpattern;
+
+/**
+ * A job in the {@link BlockingJobQueue}.
+ *
+ * Jobs are identified by a numeric id and ordered by a primitive priority, lower values
+ * are taken first. The tag is optional and only there for readable logs.
+ *
+ * Jobs handed out by a {@link JobPool} are reused once they are recycled, so a pooled job
+ * must not be touched after {@link #recycle()}.
+ */
+public final class Job {
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    private long id;
+
+    private int priority;
+
+    private String tag;
+
+    // pool this job goes back to on recycle(), null for unpooled jobs
+    final JobPool pool;
+
+    // sequence number of the job's record in the JobWriteAheadLog, -1 when it is not logged
+    long logSequence = -1;
+
+    // guarded by the pool's lock. True while a pooled job is back in its pool
+    boolean released;
+
+    public Job(long id, int priority, String tag){
+        this(null);
+        set(id, priority, tag);
+    }
+
+    Job(JobPool pool){
+        this.pool = pool;
+    }
+
+    Job set(long id, int priority, String tag){
+        this.id = id;
+        this.priority = priority;
+        this.tag = tag;
+        this.logSequence = -1;
+        return this;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * Returns a pooled job back to its pool once it has been handled.
+     * Does nothing for jobs that were not taken from a pool, or that are already back in it,
+     * so a job can't end up in the pool twice. Jobs run by a {@link JobDispatcher} are recycled by it.
+     */
+    public void recycle(){
+        if (pool != null){
+            pool.release(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return tag != null ? tag : "job#" + id;
+    }
+}
@@ -0,0 +1,352 @@
+package singletonpattern;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drains a {@link BlockingJobQueue} with a pool of worker threads and hands every job
+ * to the registered {@link JobHandler}s.
+ *
+ * Handlers are asked in registration order, the first one that accepts the job handles it.
+ * A job is only acknowledged to the queue once it is done with : handled, or dead-lettered
+ * because no handler accepted it or it failed on every attempt. A job whose worker is
+ * interrupted is left unacknowledged, so a queue with a write-ahead log replays it on restart.
+ * Workers can be platform threads or virtual threads, so both can be compared for I/O heavy
+ * jobs on the same node. Each worker keeps its own throughput counter.
+ */
+public class JobDispatcher {
+
+    /**
+     * Kind of threads that the workers run on.
+     */
+    public enum Mode {
+        PLATFORM,
+        // needs a JVM with virtual thread support (Java 21+)
+        VIRTUAL
+    }
+
+    /**
+     * Handler for the jobs taken off the queue.
+     */
+    public interface JobHandler {
+
+        /**
+         * @param job the job to run. Pooled jobs are recycled once handling is over,
+         *            so handlers must not keep a reference to it.
+         * @return true if this handler took care of the job, false to pass it on
+         */
+        boolean handle(Job job) throws Exception;
+    }
+
+    /**
+     * Last stop for the jobs that could not be handled.
+     */
+    public interface DeadLetterHandler {
+
+        /**
+         * @param job the job, recycled once this returns. If this throws, the job is not
+         *            acknowledged and comes back on restart when the queue has a log
+         * @param cause the failure of the last attempt, null if no handler accepted the job
+         */
+        void deadLetter(Job job, Exception cause);
+    }
+
+    /**
+     * How many times a failing job is run before it is dead-lettered.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    // how long an idle worker waits before re-checking the shutdown flag
+    private static final long POLL_INTERVAL_MILLIS = 50;
+
+    private final BlockingJobQueue jobQueue;
+
+    private final List<JobHandler> handlers = new CopyOnWriteArrayList<>();
+
+    private final Worker[] workers;
+
+    private final AtomicLong unhandledJobs = new AtomicLong();
+
+    private final AtomicLong failedJobs = new AtomicLong();
+
+    private final AtomicLong retriedJobs = new AtomicLong();
+
+    // jobs left unacknowledged because the dead letter handler failed
+    private final AtomicLong deadLetterFailures = new AtomicLong();
+
+    // null to just drop dead letters
+    private volatile DeadLetterHandler deadLetterHandler;
+
+    private volatile boolean shuttingDown;
+
+    JobDispatcher(BlockingJobQueue jobQueue, Mode mode, int workerCount){
+        if (workerCount <= 0){
+            throw new IllegalArgumentException("workerCount must be positive : " + workerCount);
+        }
+        this.jobQueue = jobQueue;
+        ThreadFactory threadFactory = threadFactory(mode);
+        this.workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++){
+            workers[i] = new Worker();
+            workers[i].thread = threadFactory.newThread(workers[i]);
+        }
+    }
+
+    public void registerHandler(JobHandler handler){
+        handlers.add(handler);
+    }
+
+    public void setDeadLetterHandler(DeadLetterHandler deadLetterHandler){
+        this.deadLetterHandler = deadLetterHandler;
+    }
+
+    public void start(){
+        for (Worker worker : workers){
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Stops accepting work once the queue has been drained.
+     * Jobs that are already queued are still handled.
+     */
+    public void shutdown(){
+        shuttingDown = true;
+    }
+
+    /**
+     * Stops the workers right away. Jobs left in the queue are not handled, and the ones
+     * being handled are not acknowledged.
+     */
+    public void shutdownNow(){
+        shuttingDown = true;
+        for (Worker worker : workers){
+            worker.thread.interrupt();
+        }
+    }
+
+    /**
+     * Waits for all workers to finish after a shutdown.
+     * @return true if all workers finished before the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Worker worker : workers){
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0){
+                return false;
+            }
+            worker.thread.join(remainingMillis);
+            if (worker.thread.isAlive()){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of jobs handled so far by each worker, indexed by worker. Only counts the
+     * jobs that a handler took care of, see {@link #unhandledJobs()} and {@link #failedJobs()}
+     */
+    public long[] handledPerWorker(){
+        long[] handled = new long[workers.length];
+        for (int i = 0; i < workers.length; i++){
+            handled[i] = workers[i].handled.get();
+        }
+        return handled;
+    }
+
+    /**
+     * @return number of jobs that a handler took care of without failing
+     */
+    public long handledJobs(){
+        long total = 0;
+        for (Worker worker : workers){
+            total += worker.handled.get();
+        }
+        return total;
+    }
+
+    /**
+     * @return number of jobs that no handler accepted, they are dead-lettered
+     */
+    public long unhandledJobs(){
+        return unhandledJobs.get();
+    }
+
+    /**
+     * @return number of jobs that failed {@link #MAX_ATTEMPTS} times, they are dead-lettered
+     */
+    public long failedJobs(){
+        return failedJobs.get();
+    }
+
+    /**
+     * @return number of times a failed job was run again
+     */
+    public long retriedJobs(){
+        return retriedJobs.get();
+    }
+
+    /**
+     * @return number of dead letters that the dead letter handler failed on, left unacknowledged
+     */
+    public long deadLetterFailures(){
+        return deadLetterFailures.get();
+    }
+
+    /**
+     * @return true if a handler took care of the job
+     */
+    private boolean dispatch(Job job){
+        try {
+            Exception failure = null;
+            for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++){
+                if (attempt > 1){
+                    retriedJobs.incrementAndGet();
+                }
+                boolean handled;
+                try {
+                    handled = runHandlers(job);
+                } catch (InterruptedException e){
+                    // not acknowledged, a job taken before a shutdownNow or a crash is recovered on restart
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (Exception e){
+                    // a failing job must not take the worker down with it
+                    failure = e;
+                    continue;
+                }
+                if (handled){
+                    jobQueue.acknowledge(job);
+                    return true;
+                }
+                unhandledJobs.incrementAndGet();
+                deadLetter(job, null);
+                return false;
+            }
+            failedJobs.incrementAndGet();
+            deadLetter(job, failure);
+            return false;
+        } finally {
+            job.recycle();
+        }
+    }
+
+    private boolean runHandlers(Job job) throws Exception {
+        for (JobHandler handler : handlers){
+            if (handler.handle(job)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the job is only acknowledged once the dead letter handler is done with it
+    private void deadLetter(Job job, Exception cause){
+        DeadLetterHandler handler = deadLetterHandler;
+        if (handler != null){
+            try {
+                handler.deadLetter(job, cause);
+            } catch (RuntimeException e){
+                deadLetterFailures.incrementAndGet();
+                return;
+            }
+        }
+        jobQueue.acknowledge(job);
+    }
+
+    private class Worker implements Runnable {
+
+        // only written by the worker thread itself, read by anyone
+        private final AtomicLong handled = new AtomicLong();
+
+        private Thread thread;
+
+        @Override
+        public void run() {
+            try {
+                while (true){
+                    Job job = jobQueue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (job == null){
+                        if (shuttingDown){
+                            // queue is drained
+                            return;
+                        }
+                        continue;
+                    }
+                    if (dispatch(job)){
+                        handled.lazySet(handled.get() + 1);
+                    }
+                }
+            } catch (InterruptedException e){
+                // shutdownNow()
+            }
+        }
+    }
+
+    private static ThreadFactory threadFactory(Mode mode){
+        if (mode == Mode.VIRTUAL){
+            return virtualThreadFactory();
+        }
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "job-dispatcher-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Looked up reflectively so that the rest of the dispatcher still runs on JVMs
+     * without virtual threads.
+     */
+    private static ThreadFactory virtualThreadFactory(){
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e){
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+    }
+
+    /**
+     * Runs the same I/O heavy workload in both modes so that they can be compared.
+     */
+    public static void main(String[] args) throws Exception {
+        int jobs = 20_000;
+        int workerCount = 256;
+        for (Mode mode : Mode.values()){
+            BlockingJobQueue queue = new BlockingJobQueue(jobs, BlockingJobQueue.OverflowPolicy.BLOCK);
+            JobDispatcher dispatcher;
+            try {
+                dispatcher = new JobDispatcher(queue, mode, workerCount);
+            } catch (UnsupportedOperationException e){
+                System.out.println(mode + " mode skipped : " + e.getMessage());
+                continue;
+            }
+            dispatcher.registerHandler(job -> {
+                // simulate a blocking I/O call
+                Thread.sleep(1);
+                return true;
+            });
+            for (int i = 0; i < jobs; i++){
+                queue.offer(new Job(i, Job.DEFAULT_PRIORITY, null));
+            }
+            long start = System.nanoTime();
+            dispatcher.start();
+            dispatcher.shutdown();
+            dispatcher.awaitTermination(1, TimeUnit.MINUTES);
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            System.out.println(String.format("%s : %d jobs by %d workers in %d ms",
+                    mode, dispatcher.handledJobs(), workerCount, elapsedMillis));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package singletonpattern;
+
+/**
+ * Fixed size pool of reusable {@link Job} objects.
+ *
+ * All jobs are created up front, so acquiring and recycling jobs allocates nothing
+ * in steady state. Producers acquire and consumers recycle, hence the lock.
+ */
+public class JobPool {
+
+    private final Job[] free;
+
+    private int size;
+
+    public JobPool(int size){
+        free = new Job[size];
+        for (int i = 0; i < size; i++){
+            free[i] = new Job(this);
+            free[i].released = true;
+        }
+        this.size = size;
+    }
+
+    /**
+     * @return a job with the given id and priority
+     * @throws IllegalStateException if all jobs of the pool are in use
+     */
+    public synchronized Job acquire(long id, int priority){
+        if (size == 0){
+            throw new IllegalStateException("Job pool exhausted, are jobs being recycled?");
+        }
+        Job job = free[--size];
+        free[size] = null;
+        job.released = false;
+        return job.set(id, priority, null);
+    }
+
+    /**
+     * Takes the job back. Does nothing if it is already back.
+     */
+    synchronized void release(Job job){
+        if (job.released){
+            return;
+        }
+        job.set(0, Job.DEFAULT_PRIORITY, null);
+        job.released = true;
+        free[size++] = job;
+    }
+
+    public synchronized int available(){
+        return size;
+    }
+}
@@ -0,0 +1,49 @@
+package singletonpattern;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated per enqueue/dequeue pair in steady state.
+ *
+ * Offers pooled jobs to a {@link BlockingJobQueue}, takes them off again and recycles them,
+ * which is the round trip of JobQueue.addJob(long, int). The allocation is read from
+ * the per thread allocation counter of the HotSpot ThreadMXBean.
+ */
+public class JobQueueAllocationBenchmark {
+
+    private static final int BATCH = 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        BlockingJobQueue queue = new BlockingJobQueue(BATCH, BlockingJobQueue.OverflowPolicy.REJECT);
+        JobPool pool = new JobPool(BATCH);
+
+        // warm up so that the JIT has compiled the hot path before we measure
+        roundTrips(queue, pool, operations);
+
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        roundTrips(queue, pool, operations);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.println(String.format("%d enqueue/dequeue pairs : %.1f ns/op, %.4f bytes/op",
+                operations, (double) elapsed / operations, (double) allocated / operations));
+    }
+
+    private static void roundTrips(BlockingJobQueue queue, JobPool pool, int operations)
+            throws InterruptedException {
+        for (int done = 0; done < operations; done += BATCH){
+            for (int i = 0; i < BATCH; i++){
+                queue.offer(pool.acquire(done + i, i & 15));
+            }
+            for (int i = 0; i < BATCH; i++){
+                queue.take().recycle();
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package singletonpattern;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What every singleton variant of this package holds : the bounded job queue, a pool of
+ * reusable jobs, and the jobs recovered from the write-ahead log.
+ *
+ * The variants only differ in how they create and publish their one instance, so they all
+ * build this same payload and hand it out with jobs(). That way {@link SingletonBenchmark}
+ * compares like with like.
+ */
+public final class JobQueueCore {
+
+    /**
+     * Upper bound on queued jobs. Producers block when the queue is full.
+     */
+    static final int CAPACITY = 1 << 16;
+
+    /**
+     * The backing queue must be thread safe as well, else the singleton hands
+     * every thread the same corruptible state.
+     */
+    private final BlockingJobQueue jobQueue;
+
+    /**
+     * Reusable jobs for the allocation free addJob(long, int) path.
+     */
+    private final JobPool jobPool;
+
+    // ids for jobs that are only added by tag
+    private final AtomicLong nextTaggedJobId = new AtomicLong();
+
+    JobQueueCore(){
+        jobQueue = new BlockingJobQueue(CAPACITY, BlockingJobQueue.OverflowPolicy.BLOCK);
+        // one spare job per queue slot and per in-flight consumer
+        jobPool = new JobPool(2 * CAPACITY);
+        recoverJobs();
+    }
+
+    /**
+     * Replays jobs left over from the last run when persistence is turned on
+     * with the {@link JobWriteAheadLog#DIRECTORY_PROPERTY} system property.
+     */
+    private void recoverJobs(){
+        try {
+            JobWriteAheadLog log = JobWriteAheadLog.fromSystemProperties();
+            if (log != null){
+                int recovered = jobQueue.attachLog(log);
+                System.out.println("Recovered " + recovered + " jobs from " + JobWriteAheadLog.DIRECTORY_PROPERTY);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not recover the job queue", e);
+        }
+    }
+
+    /**
+     * @return false if the queue rejected the job
+     */
+    public boolean addJob(String tag) throws InterruptedException {
+        boolean added = jobQueue.offer(new Job(nextTaggedJobId.getAndIncrement(), Job.DEFAULT_PRIORITY, tag));
+        System.out.println((added ? "Job added with tag " : "Job rejected with tag ") + tag);
+        return added;
+    }
+
+    /**
+     * Allocation free variant of addJob using a pooled {@link Job}.
+     * Consumers that take() or poll() the job themselves acknowledge it, then call
+     * {@link Job#recycle()}. Jobs run by a {@link JobDispatcher} are acknowledged and recycled by it.
+     * @return false if the queue rejected the job, which is then back in the pool
+     */
+    public boolean addJob(long jobId, int priority) throws InterruptedException {
+        Job job = jobPool.acquire(jobId, priority);
+        if (!jobQueue.offer(job)){
+            job.recycle();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the queue rejected the job
+     */
+    public boolean addJob(Job job) throws InterruptedException {
+        return jobQueue.offer(job);
+    }
+
+    public Job take() throws InterruptedException {
+        return jobQueue.take();
+    }
+
+    public Job poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return jobQueue.poll(timeout, unit);
+    }
+
+    /**
+     * Marks a job from take() or poll() as handled, so it is not recovered after a restart.
+     * Jobs run by a {@link JobDispatcher} are acknowledged by it.
+     */
+    public void acknowledge(Job job){
+        jobQueue.acknowledge(job);
+    }
+
+    /**
+     * Creates a dispatcher that drains this queue. Register handlers and start() it.
+     * @param mode run the workers on platform or virtual threads
+     * @param workerCount number of workers taking jobs off the queue
+     */
+    public JobDispatcher newDispatcher(JobDispatcher.Mode mode, int workerCount){
+        return new JobDispatcher(jobQueue, mode, workerCount);
+    }
+}
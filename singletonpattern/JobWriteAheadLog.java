@@ -0,0 +1,369 @@
+package singletonpattern;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Durable, segmented write-ahead log of the jobs in a {@link BlockingJobQueue}.
+ *
+ * Every queued job is appended as an ADD record and every handled job as an ACK record
+ * to a memory mapped segment file. Segments are fixed in size, a new one is started when
+ * the current one is full. Mapped pages are forced to disk once every groupCommitSize
+ * appends (group commit), or on {@link #sync()} and {@link #close()}.
+ *
+ * The log numbers its ADD records itself and ACK records refer to that sequence number, kept
+ * on the {@link Job}, not to the job id. So job ids don't need to be unique.
+ *
+ * On startup the log is replayed : jobs that were added but never acknowledged are handed
+ * back, in the order they were added. Compaction then rewrites only those live jobs into a
+ * fresh segment and deletes the older segments, dropping all consumed entries. A full
+ * segment is compacted the same way instead of rolling over, when the live jobs would take
+ * less than half a segment, so a long running log does not grow without bounds.
+ */
+public class JobWriteAheadLog implements AutoCloseable {
+
+    /**
+     * System property with the directory of the log. Persistence is off when it is not set.
+     */
+    public static final String DIRECTORY_PROPERTY = "singletonpattern.jobqueue.wal.dir";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    public static final int DEFAULT_GROUP_COMMIT_SIZE = 1024;
+
+    // a zero type byte marks the unused tail of a segment
+    private static final byte END = 0;
+    private static final byte ADD = 1;
+    private static final byte ACK = 2;
+
+    // type + sequence + id + priority + tag length
+    private static final int ADD_HEADER_SIZE = 1 + 8 + 8 + 4 + 2;
+    // type + sequence
+    private static final int ACK_SIZE = 1 + 8;
+
+    private static final String SEGMENT_PREFIX = "jobs-";
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    // Unsafe.invokeCleaner(ByteBuffer), null when this JVM doesn't have it
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e){
+            // buffers get unmapped by the garbage collector
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final int groupCommitSize;
+
+    // segments on disk, oldest first. The last one is the one being appended to
+    private final List<Path> segments = new ArrayList<>();
+
+    private MappedByteBuffer current;
+
+    private int appendsSinceSync;
+
+    private long nextSequence;
+
+    // false until an existing log is replayed, appending before would reuse sequence numbers
+    private boolean replayed;
+
+    // true while compact() rewrites the live jobs
+    private boolean compacting;
+
+    // estimate of the live jobs since the last compaction, to decide when to compact
+    private long addedRecords;
+    private long addedBytes;
+    private long liveRecords;
+
+    public JobWriteAheadLog(Path directory, int segmentSize, int groupCommitSize) throws IOException {
+        if (segmentSize < ADD_HEADER_SIZE + 0xFFFF + 1){
+            throw new IllegalArgumentException("segmentSize too small : " + segmentSize);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.groupCommitSize = Math.max(1, groupCommitSize);
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)){
+            for (Path segment : stream){
+                segments.add(segment);
+            }
+        }
+        // segment names are zero padded, so name order is creation order
+        Collections.sort(segments);
+        replayed = segments.isEmpty();
+    }
+
+    /**
+     * @return the log configured by {@link #DIRECTORY_PROPERTY}, or null if persistence is off
+     */
+    public static JobWriteAheadLog fromSystemProperties() throws IOException {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory == null){
+            return null;
+        }
+        return new JobWriteAheadLog(Paths.get(directory), DEFAULT_SEGMENT_SIZE, DEFAULT_GROUP_COMMIT_SIZE);
+    }
+
+    /**
+     * Hands every job that was added but not acknowledged to the consumer, oldest first,
+     * then compacts the log down to just those jobs.
+     * @return number of jobs replayed
+     */
+    public synchronized int replay(Consumer<Job> consumer) throws IOException {
+        Map<Long, Job> liveJobs = readLiveJobs();
+        replayed = true;
+        for (Job job : liveJobs.values()){
+            consumer.accept(job);
+        }
+        compact(liveJobs);
+        return liveJobs.size();
+    }
+
+    /**
+     * Rewrites the log so that it holds only jobs that have not been acknowledged.
+     */
+    public synchronized void compact() throws IOException {
+        Map<Long, Job> liveJobs = readLiveJobs();
+        replayed = true;
+        compact(liveJobs);
+    }
+
+    /**
+     * Logs the job and gives it its sequence number.
+     * @throws IllegalStateException if the log has records that were not replayed yet
+     */
+    public synchronized void append(Job job) throws IOException {
+        if (!replayed){
+            throw new IllegalStateException("Replay the log in " + directory + " before appending to it");
+        }
+        job.logSequence = nextSequence++;
+        write(job);
+        committed();
+    }
+
+    /**
+     * Logs that the job was handled, it won't be replayed. Does nothing for a job that was
+     * never appended.
+     */
+    public synchronized void acknowledge(Job job) throws IOException {
+        if (job.logSequence < 0){
+            return;
+        }
+        MappedByteBuffer buffer = reserve(ACK_SIZE);
+        int start = buffer.position();
+        buffer.position(start + 1);
+        buffer.putLong(job.logSequence);
+        buffer.put(start, ACK);
+        liveRecords = Math.max(0, liveRecords - 1);
+        committed();
+    }
+
+    /**
+     * Forces all appended records to disk.
+     */
+    public synchronized void sync(){
+        if (current != null){
+            current.force();
+        }
+        appendsSinceSync = 0;
+    }
+
+    @Override
+    public synchronized void close(){
+        sync();
+        unmap(current);
+        current = null;
+    }
+
+    public synchronized int segmentCount(){
+        return segments.size();
+    }
+
+    private void committed(){
+        if (++appendsSinceSync >= groupCommitSize){
+            sync();
+        }
+    }
+
+    // writes an ADD record with the job's sequence number
+    private void write(Job job) throws IOException {
+        byte[] tag = job.getTag() == null ? null : job.getTag().getBytes(StandardCharsets.UTF_8);
+        int tagLength = tag == null ? 0 : Math.min(tag.length, 0xFFFF);
+        MappedByteBuffer buffer = reserve(ADD_HEADER_SIZE + tagLength);
+        int start = buffer.position();
+        buffer.position(start + 1);
+        buffer.putLong(job.logSequence);
+        buffer.putLong(job.getId());
+        buffer.putInt(job.getPriority());
+        buffer.putShort((short) tagLength);
+        if (tagLength > 0){
+            buffer.put(tag, 0, tagLength);
+        }
+        // the type byte goes in last, so a torn record reads as the end of the segment
+        buffer.put(start, ADD);
+        addedRecords++;
+        addedBytes += ADD_HEADER_SIZE + tagLength;
+        liveRecords++;
+    }
+
+    /**
+     * @return the current segment, with room for a record of the given size
+     */
+    private MappedByteBuffer reserve(int recordSize) throws IOException {
+        if (current == null || current.remaining() < recordSize){
+            if (current != null && !compacting && liveBytesEstimate() < segmentSize / 2){
+                compact(readLiveJobs());
+            }
+            if (current == null || current.remaining() < recordSize){
+                rollSegment();
+            }
+        }
+        return current;
+    }
+
+    private long liveBytesEstimate(){
+        return addedRecords == 0 ? 0 : liveRecords * (addedBytes / addedRecords);
+    }
+
+    private void rollSegment() throws IOException {
+        closeSegment();
+        int next = segments.isEmpty() ? 0 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+        Path segment = directory.resolve(String.format("%s%010d%s", SEGMENT_PREFIX, next, SEGMENT_SUFFIX));
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            // the mapping stays valid after the channel is closed
+            current = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segments.add(segment);
+        appendsSinceSync = 0;
+    }
+
+    private void closeSegment(){
+        if (current != null){
+            current.force();
+            unmap(current);
+            current = null;
+        }
+    }
+
+    /**
+     * @return live jobs by sequence number, in the order they were added
+     */
+    private Map<Long, Job> readLiveJobs() throws IOException {
+        Map<Long, Job> liveJobs = new LinkedHashMap<>();
+        for (Path segment : segments){
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)){
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                readSegment(buffer, liveJobs);
+                unmap(buffer);
+            }
+        }
+        return liveJobs;
+    }
+
+    private void readSegment(MappedByteBuffer buffer, Map<Long, Job> liveJobs){
+        while (buffer.remaining() >= ACK_SIZE){
+            byte type = buffer.get();
+            if (type == ADD){
+                long sequence = buffer.getLong();
+                long id = buffer.getLong();
+                int priority = buffer.getInt();
+                int tagLength = buffer.getShort() & 0xFFFF;
+                String tag = null;
+                if (tagLength > 0){
+                    byte[] tagBytes = new byte[tagLength];
+                    buffer.get(tagBytes);
+                    tag = new String(tagBytes, StandardCharsets.UTF_8);
+                }
+                Job job = new Job(id, priority, tag);
+                job.logSequence = sequence;
+                liveJobs.put(sequence, job);
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+            else if (type == ACK){
+                liveJobs.remove(buffer.getLong());
+            }
+            else {
+                // END, or a record that was torn by a crash
+                return;
+            }
+        }
+    }
+
+    private void compact(Map<Long, Job> liveJobs) throws IOException {
+        List<Path> obsolete = new ArrayList<>(segments);
+        // start a fresh segment so that the live jobs never share a file with obsolete entries
+        closeSegment();
+        compacting = true;
+        addedRecords = 0;
+        addedBytes = 0;
+        liveRecords = 0;
+        try {
+            // live jobs keep their sequence numbers, so that jobs being handled can still be acknowledged
+            for (Job job : liveJobs.values()){
+                write(job);
+            }
+            if (current == null){
+                rollSegment();
+            }
+        } finally {
+            compacting = false;
+        }
+        sync();
+        // only delete once the live jobs are safely on disk. A crash before this point
+        // leaves duplicate ADD records, which replay collapses by sequence number
+        for (Path segment : obsolete){
+            Files.deleteIfExists(segment);
+        }
+        segments.removeAll(obsolete);
+    }
+
+    /**
+     * Unmaps the buffer right away instead of when it is garbage collected, which may be
+     * never for a long lived log. The buffer must not be used after.
+     */
+    private static void unmap(MappedByteBuffer buffer){
+        if (buffer != null && INVOKE_CLEANER != null){
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException e){
+                // left to the garbage collector
+            }
+        }
+    }
+
+    private static int segmentNumber(Path segment){
+        String name = segment.getFileName().toString();
+        return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
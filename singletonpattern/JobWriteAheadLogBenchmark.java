@@ -0,0 +1,66 @@
+package singletonpattern;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reports the append throughput and the recovery time of the {@link JobWriteAheadLog}.
+ *
+ * Appends the given number of jobs (10M by default) and acknowledges every other one,
+ * as if half of the jobs were consumed before a crash. Then a new log is opened on the same
+ * directory and replayed, which is what JobQueue.getInstance() does on startup.
+ *
+ * Usage : JobWriteAheadLogBenchmark [jobs] [directory]
+ */
+public class JobWriteAheadLogBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        Path directory = args.length > 1 ? Paths.get(args[1]) : Files.createTempDirectory("job-wal");
+
+        JobWriteAheadLog log = new JobWriteAheadLog(directory,
+                JobWriteAheadLog.DEFAULT_SEGMENT_SIZE, JobWriteAheadLog.DEFAULT_GROUP_COMMIT_SIZE);
+        Job job = new Job(0, Job.DEFAULT_PRIORITY, null);
+        long start = System.nanoTime();
+        for (int i = 0; i < jobs; i++){
+            job.set(i, i & 7, null);
+            log.append(job);
+            if ((i & 1) == 1){
+                log.acknowledge(job);
+            }
+        }
+        log.close();
+        long appendNanos = System.nanoTime() - start;
+        int segments = log.segmentCount();
+
+        start = System.nanoTime();
+        JobWriteAheadLog recoveredLog = new JobWriteAheadLog(directory,
+                JobWriteAheadLog.DEFAULT_SEGMENT_SIZE, JobWriteAheadLog.DEFAULT_GROUP_COMMIT_SIZE);
+        final AtomicInteger recovered = new AtomicInteger();
+        recoveredLog.replay(recoveredJob -> recovered.incrementAndGet());
+        long recoveryNanos = System.nanoTime() - start;
+        recoveredLog.close();
+
+        long records = jobs + jobs / 2;
+        System.out.println(String.format("Appended %d records to %d segments in %d ms : %.0f records/s",
+                records, segments, TimeUnit.NANOSECONDS.toMillis(appendNanos),
+                records * 1e9 / appendNanos));
+        System.out.println(String.format("Recovered %d live jobs and compacted to %d segment(s) in %d ms",
+                recovered.get(), recoveredLog.segmentCount(), TimeUnit.NANOSECONDS.toMillis(recoveryNanos)));
+
+        if (args.length <= 1){
+            // don't leave the temporary segments behind
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)){
+                for (Path segment : stream){
+                    Files.delete(segment);
+                }
+            }
+            Files.delete(directory);
+        }
+    }
+}
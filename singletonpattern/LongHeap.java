@@ -0,0 +1,105 @@
+package singletonpattern;
+
+/**
+ * Array backed binary min-heap of primitive keys, each carrying an int value.
+ *
+ * A key is an int priority and a long sequence that breaks ties between equal priorities.
+ * They are kept in two arrays rather than packed into one long, so neither is cut down to
+ * fit and a long sequence doesn't wrap in practice.
+ *
+ * Unlike {@link java.util.PriorityQueue} there are no boxed keys and no per-element nodes,
+ * and the arrays never grow, so push and pop allocate nothing. Not thread safe.
+ */
+class LongHeap {
+
+    private final int[] priorities;
+
+    private final long[] sequences;
+
+    private final int[] values;
+
+    private int size;
+
+    LongHeap(int capacity){
+        priorities = new int[capacity];
+        sequences = new long[capacity];
+        values = new int[capacity];
+    }
+
+    void push(int priority, long sequence, int value){
+        if (size == values.length){
+            throw new IllegalStateException("heap is full");
+        }
+        // sift up from the new leaf
+        int i = size++;
+        while (i > 0){
+            int parent = (i - 1) >>> 1;
+            if (!less(priority, sequence, parent)){
+                break;
+            }
+            move(parent, i);
+            i = parent;
+        }
+        set(i, priority, sequence, value);
+    }
+
+    /**
+     * Removes the entry with the smallest key.
+     * @return value of the removed entry
+     */
+    int pop(){
+        if (size == 0){
+            throw new IllegalStateException("heap is empty");
+        }
+        int top = values[0];
+        int last = --size;
+        int priority = priorities[last];
+        long sequence = sequences[last];
+        int value = values[last];
+        // sift the last leaf down from the root
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half){
+            int child = 2 * i + 1;
+            if (child + 1 < size && less(priorities[child + 1], sequences[child + 1], child)){
+                child++;
+            }
+            if (!less(priorities[child], sequences[child], priority, sequence)){
+                break;
+            }
+            move(child, i);
+            i = child;
+        }
+        set(i, priority, sequence, value);
+        return top;
+    }
+
+    int size(){
+        return size;
+    }
+
+    boolean isEmpty(){
+        return size == 0;
+    }
+
+    // true if the key sorts before the entry at the index
+    private boolean less(int priority, long sequence, int index){
+        return less(priority, sequence, priorities[index], sequences[index]);
+    }
+
+    private static boolean less(int priority, long sequence, int otherPriority, long otherSequence){
+        return priority != otherPriority ? priority < otherPriority : sequence < otherSequence;
+    }
+
+    private void move(int from, int to){
+        priorities[to] = priorities[from];
+        sequences[to] = sequences[from];
+        values[to] = values[from];
+    }
+
+    private void set(int index, int priority, long sequence, int value){
+        priorities[index] = priority;
+        sequences[index] = sequence;
+        values[index] = value;
+    }
+}
@@ -0,0 +1,145 @@
+package singletonpattern;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Compares the singleton variants of this package, so that one can be picked on data.
+ *
+ * All variants hold the same payload, a {@link JobQueueCore}, and hand it out with jobs(), so
+ * the numbers only differ by how the instance is created and published.
+ *
+ * Every variant runs in a fresh JVM of its own. This way the class is not yet initialized when
+ * the cold start is measured, and the JIT profile of one variant does not leak into another.
+ * For each variant it measures :
+ * - cold start : time of the very first getInstance(), including class loading and initialization.
+ * - uncontended latency : average time of getInstance() on one thread once warmed up.
+ * - contended throughput : getInstance() calls per second from 64 threads at once.
+ *
+ * Usage : SingletonBenchmark [variant]
+ */
+public class SingletonBenchmark {
+
+    private enum Variant {
+        EAGER(EagerSingleton.JobQueue::getInstance),
+        DOUBLE_CHECK_LOCKING(DoubleCheckLockingSingleton.JobQueue::getInstance),
+        HOLDER(HolderSingleton.JobQueue::getInstance),
+        ENUM(EnumSingleton.JobQueue::getInstance),
+        VAR_HANDLE(VarHandleSingleton.JobQueue::getInstance);
+
+        final Supplier<Object> getInstance;
+
+        Variant(Supplier<Object> getInstance){
+            this.getInstance = getInstance;
+        }
+    }
+
+    private static final String FORK_ARGUMENT = "--forked";
+
+    private static final int CONTENDING_THREADS = 64;
+
+    private static final long UNCONTENDED_CALLS = 200_000_000L;
+
+    private static final long CONTENDED_MILLIS = 2_000;
+
+    // consumed results, so that the JIT can't drop the getInstance() calls
+    private static volatile int sink;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals(FORK_ARGUMENT)){
+            measure(Variant.valueOf(args[1]));
+            return;
+        }
+        Variant[] variants = args.length == 1 ? new Variant[]{Variant.valueOf(args[0])} : Variant.values();
+
+        System.out.println(String.format("%-22s %14s %16s %22s",
+                "variant", "cold start us", "uncontended ns", "64 threads calls/s"));
+        for (Variant variant : variants){
+            System.out.println(fork(variant));
+        }
+    }
+
+    private static void measure(Variant variant) throws InterruptedException {
+        Supplier<Object> getInstance = variant.getInstance;
+        long start = System.nanoTime();
+        sink = System.identityHashCode(getInstance.get());
+        long coldNanos = System.nanoTime() - start;
+        double uncontendedNanos = uncontendedNanos(getInstance);
+        double contendedThroughput = contendedThroughput(getInstance);
+        System.out.println(String.format("%-22s %14.1f %16.2f %22.3e",
+                variant, coldNanos / 1e3, uncontendedNanos, contendedThroughput));
+    }
+
+    /**
+     * Measures the variant in a child JVM.
+     * @return the result line printed by the child
+     */
+    private static String fork(Variant variant) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                SingletonBenchmark.class.getName(), FORK_ARGUMENT, variant.name())
+                .redirectErrorStream(true)
+                .start();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))){
+            String line = reader.readLine();
+            process.waitFor();
+            return line;
+        }
+    }
+
+    private static double uncontendedNanos(Supplier<Object> getInstance){
+        // first round warms up the JIT
+        runCalls(getInstance, UNCONTENDED_CALLS / 10);
+        long start = System.nanoTime();
+        runCalls(getInstance, UNCONTENDED_CALLS);
+        return (double) (System.nanoTime() - start) / UNCONTENDED_CALLS;
+    }
+
+    private static void runCalls(Supplier<Object> getInstance, long calls){
+        int hash = 0;
+        for (long i = 0; i < calls; i++){
+            hash ^= System.identityHashCode(getInstance.get());
+        }
+        sink = hash;
+    }
+
+    private static double contendedThroughput(final Supplier<Object> getInstance) throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicLong totalCalls = new AtomicLong();
+        final long[] deadline = new long[1];
+        Thread[] threads = new Thread[CONTENDING_THREADS];
+        for (int t = 0; t < threads.length; t++){
+            threads[t] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e){
+                    return;
+                }
+                long calls = 0;
+                int hash = 0;
+                // check the clock only once every 1024 calls
+                while (System.nanoTime() < deadline[0]){
+                    for (int i = 0; i < 1024; i++){
+                        hash ^= System.identityHashCode(getInstance.get());
+                    }
+                    calls += 1024;
+                }
+                sink = hash;
+                totalCalls.addAndGet(calls);
+            });
+            threads[t].start();
+        }
+        deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CONTENDED_MILLIS);
+        // the latch makes the deadline visible to the threads
+        startLatch.countDown();
+        for (Thread thread : threads){
+            thread.join();
+        }
+        return totalCalls.get() * 1000.0 / CONTENDED_MILLIS;
+    }
+}
@@ -0,0 +1,65 @@
+package singletonpattern;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * In this example we implement double check locking with a VarHandle instead of a volatile field.
+ *
+ * A volatile read is stronger than what double check locking needs. It is enough that the
+ * thread which creates the instance publishes it with release semantics, and that readers
+ * read it with acquire semantics. Then a reader that sees the instance also sees its
+ * constructed state. On x86 an acquire read is a plain load.
+ */
+public class VarHandleSingleton {
+
+    public static class JobQueue{
+
+        private static final VarHandle INSTANCE;
+
+        static {
+            try {
+                INSTANCE = MethodHandles.lookup().findStaticVarHandle(JobQueue.class, "instance", JobQueue.class);
+            } catch (ReflectiveOperationException e){
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        // only accessed through the INSTANCE var handle
+        private static JobQueue instance;
+
+        // the same payload as the other variants, see JobQueueCore
+        private final JobQueueCore jobs;
+
+        private JobQueue(){
+            jobs = new JobQueueCore();
+        }
+
+        public static JobQueue getInstance(){
+            JobQueue jobQueue = (JobQueue) INSTANCE.getAcquire();
+            if (jobQueue == null){
+                synchronized (JobQueue.class){
+                    jobQueue = (JobQueue) INSTANCE.getAcquire();
+                    if (jobQueue == null){
+                        jobQueue = new JobQueue();
+                        INSTANCE.setRelease(jobQueue);
+                    }
+                }
+            }
+            return jobQueue;
+        }
+
+        /**
+         * @return the queue itself, to add and take jobs
+         */
+        public JobQueueCore jobs(){
+            return jobs;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        JobQueueCore jobs = JobQueue.getInstance().jobs();
+        jobs.addJob(new Job(1, Job.DEFAULT_PRIORITY, "job_tag_1337"));
+        System.out.println("Took job with tag " + jobs.take());
+    }
+}
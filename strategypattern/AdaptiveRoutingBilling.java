@@ -0,0 +1,454 @@
+package strategypattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+import strategypattern.PaymentsStrategyPattern.VoidableBilling;
+
+/**
+ * Billing behaviour that picks the gateway for every charge, instead of being set by hand.
+ *
+ * It measures the latency and the failures of each gateway as charges go through, and routes
+ * to the fastest gateway whose circuit is closed. A gateway that keeps failing has its circuit
+ * opened : it gets no charges for a while, then one probe charge decides whether it is back.
+ * A probe that takes longer than the open time counts as failed, so the next charge probes again.
+ *
+ * Optionally, a charge that is slow to come back is hedged : the same charge is sent to the
+ * next best gateway, and the first approval wins. A charge is declined only once both gateways
+ * declined it. Both charges may go through, so only charges with an idempotency key are hedged,
+ * and only between {@link VoidableBilling} gateways : when both approve, the later approval is
+ * voided.
+ */
+class AdaptiveRoutingBilling implements BillingBehaviour {
+
+    /**
+     * How to pick among the healthy gateways.
+     */
+    enum Mode {
+        // always the one with the lowest smoothed latency
+        FASTEST,
+        // at random, weighted by 1 / latency^2, so slower gateways still get a little traffic
+        WEIGHTED
+    }
+
+    /**
+     * State of a gateway's circuit breaker.
+     */
+    enum CircuitState {
+        CLOSED,
+        OPEN,
+        // open time is over, one probe charge is let through
+        HALF_OPEN
+    }
+
+    // share of the charges sent to a random gateway in FASTEST mode, so that the latency of the others stays known
+    private static final double EXPLORATION_RATE = 0.02;
+
+    // weight of the latest call in the smoothed latency, as in TCP's round trip time estimate
+    private static final double LATENCY_GAIN = 0.125;
+
+    private static final double DEVIATION_GAIN = 0.25;
+
+    private static final double FAILURE_GAIN = 0.05;
+
+    // calls a gateway must have answered before its charges are hedged, its latency is a guess before
+    private static final int HEDGE_WARM_UP_CALLS = 20;
+
+    private static final long MIN_HEDGE_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final List<Route> routes = new ArrayList<>();
+
+    private final Mode mode;
+
+    // circuit breaker settings
+    private final double maxFailureRate;
+    private final int maxConsecutiveFailures;
+    private final long openNanos;
+
+    // null unless hedging
+    private Executor hedgeExecutor;
+
+    private final LongAdder hedgedCharges = new LongAdder();
+
+    private final LongAdder voidedCharges = new LongAdder();
+
+    // second approvals that could not be voided, i.e. charged twice
+    private final LongAdder failedVoids = new LongAdder();
+
+    /**
+     * @param maxFailureRate smoothed failure rate above which a gateway's circuit opens
+     * @param maxConsecutiveFailures failures in a row after which a gateway's circuit opens
+     * @param openMillis how long an open circuit stays open before the probe
+     */
+    AdaptiveRoutingBilling(List<? extends BillingBehaviour> gateways, Mode mode,
+                           double maxFailureRate, int maxConsecutiveFailures, long openMillis){
+        if (gateways.isEmpty()){
+            throw new IllegalArgumentException("No gateways to route to");
+        }
+        for (BillingBehaviour gateway : gateways){
+            routes.add(new Route(gateway));
+        }
+        this.mode = mode;
+        this.maxFailureRate = maxFailureRate;
+        this.maxConsecutiveFailures = maxConsecutiveFailures;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    AdaptiveRoutingBilling(List<? extends BillingBehaviour> gateways, Mode mode){
+        this(gateways, mode, 0.25, 5, 1_000);
+    }
+
+    /**
+     * Turns on hedging. A charge is hedged once it takes longer than the gateway's smoothed
+     * latency plus four deviations, which few charges of a healthy gateway do, and at least
+     * {@link #MIN_HEDGE_DELAY_NANOS}. Charges of a gateway are not hedged during its first
+     * {@link #HEDGE_WARM_UP_CALLS} calls.
+     * @param executor runs the charges while bill() waits for the first answer
+     */
+    void enableHedging(Executor executor){
+        this.hedgeExecutor = executor;
+    }
+
+    /**
+     * @throws IllegalStateException if no gateway is healthy, or the gateway failed
+     */
+    @Override
+    public boolean bill(long amount) {
+        return bill(null, amount);
+    }
+
+    /**
+     * The key goes to whichever gateway gets the charge, and to both when hedging.
+     * Only charges with a key are hedged.
+     */
+    @Override
+    public boolean bill(String idempotencyKey, long amount) {
+        Money.check(amount);
+        Route primary = choose(null);
+        if (primary == null){
+            throw new IllegalStateException("No healthy payment gateway");
+        }
+        if (hedgeExecutor == null || idempotencyKey == null || !primary.isVoidable()){
+            return primary.call(idempotencyKey, amount);
+        }
+        return billHedged(primary, idempotencyKey, amount);
+    }
+
+    @Override
+    public String getName() {
+        return "AdaptiveRouting(" + mode + ")";
+    }
+
+    /**
+     * @return charges sent to a second gateway, approvals voided because both gateways approved,
+     *         and approvals that could not be voided
+     */
+    String describeHedging(){
+        return String.format("hedged=%d voided=%d failedVoids=%d", hedgedCharges(), voidedCharges(), failedVoids());
+    }
+
+    long hedgedCharges(){
+        return hedgedCharges.sum();
+    }
+
+    long voidedCharges(){
+        return voidedCharges.sum();
+    }
+
+    /**
+     * @return approvals that the gateway failed to void, these charges went through twice
+     */
+    long failedVoids(){
+        return failedVoids.sum();
+    }
+
+    private boolean billHedged(Route primary, String idempotencyKey, long amount){
+        CompletableFuture<Boolean> first = CompletableFuture.supplyAsync(
+                () -> primary.call(idempotencyKey, amount), hedgeExecutor);
+        long hedgeDelayNanos = primary.hedgeDelayNanos();
+        if (hedgeDelayNanos < 0){
+            return join(first);
+        }
+        try {
+            return first.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e){
+            // slow, hedge below
+        } catch (ExecutionException e){
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while billing", e);
+        }
+        Route backup = choose(primary);
+        if (backup == null || !backup.isVoidable()){
+            return join(first);
+        }
+        hedgedCharges.increment();
+        CompletableFuture<Boolean> second = CompletableFuture.supplyAsync(
+                () -> backup.call(idempotencyKey, amount), hedgeExecutor);
+        return join(firstApproved(List.of(first, second), List.of(primary, backup), idempotencyKey, amount));
+    }
+
+    /**
+     * @return true as soon as one of the charges is approved, false once all are answered and
+     *         one was declined, the last failure if all failed. Approvals after the first are voided
+     */
+    private CompletableFuture<Boolean> firstApproved(List<CompletableFuture<Boolean>> attempts, List<Route> routes,
+                                                     String idempotencyKey, long amount){
+        CompletableFuture<Boolean> winner = new CompletableFuture<>();
+        AtomicInteger answered = new AtomicInteger();
+        AtomicBoolean declined = new AtomicBoolean();
+        AtomicReference<Throwable> lastFailure = new AtomicReference<>();
+        for (int i = 0; i < attempts.size(); i++){
+            Route route = routes.get(i);
+            attempts.get(i).whenComplete((approved, failure) -> {
+                if (failure != null){
+                    lastFailure.set(failure);
+                }
+                else if (!approved){
+                    declined.set(true);
+                }
+                else if (!winner.complete(true)){
+                    // the caller already has an approval from the other gateway
+                    voidCharge(route, idempotencyKey, amount);
+                }
+                if (answered.incrementAndGet() == attempts.size()){
+                    if (declined.get()){
+                        winner.complete(false);
+                    }
+                    else {
+                        winner.completeExceptionally(lastFailure.get());
+                    }
+                }
+            });
+        }
+        return winner;
+    }
+
+    private void voidCharge(Route route, String idempotencyKey, long amount){
+        try {
+            ((VoidableBilling) route.gateway).voidCharge(idempotencyKey, amount);
+            voidedCharges.increment();
+        } catch (RuntimeException e){
+            // nothing more we can do here, the gateway's settlement report will show the double charge
+            failedVoids.increment();
+        }
+    }
+
+    private static boolean join(CompletableFuture<Boolean> future){
+        try {
+            return future.join();
+        } catch (CompletionException e){
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable failure){
+        if (failure instanceof RuntimeException){
+            return (RuntimeException) failure;
+        }
+        if (failure instanceof Error){
+            throw (Error) failure;
+        }
+        return new IllegalStateException(failure);
+    }
+
+    /**
+     * @param excluded gateway not to pick, null for none
+     * @return the gateway for the next charge, null if none is available
+     */
+    private Route choose(Route excluded){
+        long now = System.nanoTime();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<Route> available = new ArrayList<>(routes.size());
+        for (Route route : routes){
+            if (route == excluded){
+                continue;
+            }
+            if (route.claimProbe(now)){
+                // its open time is over, this charge decides whether it is back
+                return route;
+            }
+            if (route.state == CircuitState.CLOSED){
+                available.add(route);
+            }
+        }
+        if (available.isEmpty()){
+            return null;
+        }
+        // an untried gateway goes first, we know nothing about its latency yet
+        for (Route route : available){
+            if (route.calls == 0){
+                return route;
+            }
+        }
+        if (mode == Mode.FASTEST){
+            if (random.nextDouble() < EXPLORATION_RATE){
+                return available.get(random.nextInt(available.size()));
+            }
+            Route fastest = available.get(0);
+            for (Route route : available){
+                if (route.smoothedNanos < fastest.smoothedNanos){
+                    fastest = route;
+                }
+            }
+            return fastest;
+        }
+        double totalWeight = 0;
+        double[] weights = new double[available.size()];
+        for (int i = 0; i < weights.length; i++){
+            double latency = Math.max(1, available.get(i).smoothedNanos);
+            weights[i] = 1 / (latency * latency);
+            totalWeight += weights[i];
+        }
+        double pick = random.nextDouble() * totalWeight;
+        for (int i = 0; i < weights.length; i++){
+            pick -= weights[i];
+            if (pick <= 0){
+                return available.get(i);
+            }
+        }
+        return available.get(weights.length - 1);
+    }
+
+    /**
+     * @return routing state of every gateway, for monitoring
+     */
+    List<String> describeRoutes(){
+        List<String> descriptions = new ArrayList<>();
+        for (Route route : routes){
+            descriptions.add(route.toString());
+        }
+        return descriptions;
+    }
+
+    /**
+     * A gateway and what we learned about it. Updated under its own lock, a charge takes
+     * milliseconds so the lock is never the bottleneck.
+     */
+    private class Route {
+
+        final BillingBehaviour gateway;
+
+        // guarded by this, but read without the lock when choosing, a stale value only makes a worse pick
+        volatile double smoothedNanos;
+        volatile long calls;
+        volatile CircuitState state = CircuitState.CLOSED;
+
+        // guarded by this
+        private double deviationNanos;
+        private double failureRate;
+        private int consecutiveFailures;
+        private long failures;
+        private long openUntil;
+        private long probeStartedAt;
+
+        Route(BillingBehaviour gateway){
+            this.gateway = gateway;
+        }
+
+        // a null key for charges billed without one
+        boolean call(String idempotencyKey, long amount){
+            long start = System.nanoTime();
+            boolean approved;
+            try {
+                approved = idempotencyKey == null ? gateway.bill(amount) : gateway.bill(idempotencyKey, amount);
+            } catch (RuntimeException e){
+                onFailure(System.nanoTime() - start);
+                throw e;
+            }
+            onSuccess(System.nanoTime() - start);
+            return approved;
+        }
+
+        /**
+         * @return true if the open time of the circuit is over, for the one caller that gets to probe
+         */
+        boolean claimProbe(long now){
+            if (state == CircuitState.CLOSED){
+                return false;
+            }
+            synchronized (this){
+                if (state == CircuitState.HALF_OPEN && now - probeStartedAt >= openNanos){
+                    // the probe hangs, count it as failed and let another one through
+                    failures++;
+                    state = CircuitState.OPEN;
+                    openUntil = now;
+                }
+                if (state == CircuitState.OPEN && now - openUntil >= 0){
+                    state = CircuitState.HALF_OPEN;
+                    probeStartedAt = now;
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        boolean isVoidable(){
+            return gateway instanceof VoidableBilling;
+        }
+
+        /**
+         * @return how long to wait for a charge before hedging it, -1 while the gateway warms up
+         */
+        synchronized long hedgeDelayNanos(){
+            if (calls < HEDGE_WARM_UP_CALLS){
+                return -1;
+            }
+            return Math.max(MIN_HEDGE_DELAY_NANOS, (long) (smoothedNanos + 4 * deviationNanos));
+        }
+
+        private synchronized void onSuccess(long nanos){
+            recordLatency(nanos);
+            failureRate *= 1 - FAILURE_GAIN;
+            consecutiveFailures = 0;
+            if (state == CircuitState.HALF_OPEN){
+                state = CircuitState.CLOSED;
+                failureRate = 0;
+            }
+        }
+
+        private synchronized void onFailure(long nanos){
+            recordLatency(nanos);
+            failures++;
+            failureRate += FAILURE_GAIN * (1 - failureRate);
+            consecutiveFailures++;
+            if (state == CircuitState.HALF_OPEN || consecutiveFailures >= maxConsecutiveFailures
+                    || failureRate > maxFailureRate){
+                state = CircuitState.OPEN;
+                openUntil = System.nanoTime() + openNanos;
+            }
+        }
+
+        private void recordLatency(long nanos){
+            if (calls == 0){
+                smoothedNanos = nanos;
+                deviationNanos = nanos / 2.0;
+            }
+            else {
+                double error = nanos - smoothedNanos;
+                smoothedNanos += LATENCY_GAIN * error;
+                deviationNanos += DEVIATION_GAIN * (Math.abs(error) - deviationNanos);
+            }
+            calls++;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s : %s calls=%d failures=%d latency=%.2fms +- %.2fms failureRate=%.2f",
+                    gateway.getName(), state, calls, failures, smoothedNanos / 1e6, deviationNanos / 1e6, failureRate);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package strategypattern;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+
+/**
+ * Gives a blocking billing behaviour a real {@link BillingBehaviour#billAsync(long)}, by running
+ * its charges on an executor. With virtual threads, a blocked charge only costs a few hundred
+ * bytes of stack, so tens of thousands of charges can be in flight.
+ *
+ * Every charge has a timeout : a charge that takes longer completes as
+ * {@link BillingResult.Status#TIMED_OUT} and its thread is interrupted. Cancelling the
+ * returned future interrupts the thread as well.
+ */
+class AsyncBillingAdapter implements BillingBehaviour {
+
+    private final BillingBehaviour gateway;
+
+    private final ExecutorService executor;
+
+    private final long timeoutNanos;
+
+    /**
+     * @param executor runs the blocking charges, one task per charge
+     */
+    AsyncBillingAdapter(BillingBehaviour gateway, ExecutorService executor, long timeout, TimeUnit unit){
+        this.gateway = gateway;
+        this.executor = executor;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the JVM has no virtual threads
+     */
+    static AsyncBillingAdapter onVirtualThreads(BillingBehaviour gateway, long timeout, TimeUnit unit){
+        return new AsyncBillingAdapter(gateway, newVirtualThreadPerTaskExecutor(), timeout, unit);
+    }
+
+    /**
+     * Blocks until the charge is done, like the wrapped behaviour.
+     */
+    @Override
+    public boolean bill(long amount) {
+        return gateway.bill(amount);
+    }
+
+    @Override
+    public boolean bill(String idempotencyKey, long amount) {
+        return gateway.bill(idempotencyKey, amount);
+    }
+
+    @Override
+    public CompletionStage<BillingResult> billAsync(long amount) {
+        return submit(amount, () -> BillingResult.call(gateway, amount));
+    }
+
+    /**
+     * The key goes along to the wrapped behaviour, so retries are deduplicated as in
+     * {@link #bill(String, long)}.
+     */
+    @Override
+    public CompletionStage<BillingResult> billAsync(String idempotencyKey, long amount) {
+        return submit(amount, () -> BillingResult.call(gateway, idempotencyKey, amount));
+    }
+
+    private CompletionStage<BillingResult> submit(long amount, Supplier<BillingResult> call){
+        // in the caller's thread, a plain number is a bug to throw at the caller
+        Money.check(amount);
+        CompletableFuture<BillingResult> result = new CompletableFuture<>();
+        Future<?> charge = executor.submit(() -> result.complete(call.get()));
+        // timed out or cancelled, no need to keep the thread busy
+        result.whenComplete((billingResult, failure) -> {
+            if (failure != null || billingResult.getStatus() == BillingResult.Status.TIMED_OUT){
+                charge.cancel(true);
+            }
+        });
+        return result.completeOnTimeout(BillingResult.timedOut(gateway, amount, timeoutNanos),
+                timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String getName() {
+        return gateway.getName();
+    }
+
+    /**
+     * Looked up reflectively, like the job dispatcher does, so that this class still loads
+     * on JVMs without virtual threads.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor(){
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e){
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package strategypattern;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+
+/**
+ * Sends many concurrent charges to a simulated gateway and waits for all of them, with :
+ * - the blocking gateway on platform threads, one per in-flight charge
+ * - the blocking gateway on virtual threads, when the JVM has them
+ * - the gateway's own asynchronous API, which needs no thread while a charge is in flight
+ *
+ * Prints the wall time and the peak number of live threads for each.
+ *
+ * Only the {@link SimulatedBilling} fake has a non-blocking billAsync, standing in for a gateway
+ * client with an asynchronous API. {@link PaymentsStrategyPattern.StripeBilling},
+ * {@link PaymentsStrategyPattern.RazorPayBilling} and {@link PaymentsStrategyPattern.PayPalBilling}
+ * keep the blocking default, which charges in the calling thread : to bill them without
+ * waiting, wrap them in an {@link AsyncBillingAdapter}, and expect the numbers of the first two
+ * runs, not of the last one.
+ *
+ * Usage : AsyncBillingBenchmark [charges] [gateway latency in ms]
+ */
+public class AsyncBillingBenchmark {
+
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private interface Run {
+        BillingBehaviour gateway(SimulatedBilling simulated);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int charges = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 50;
+
+        // platform threads first, the other runs can't push the peak thread count any higher
+        ExecutorService platformThreads = Executors.newCachedThreadPool();
+        run("platform threads", charges, latencyMillis, simulated ->
+                new AsyncBillingAdapter(simulated, platformThreads, TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        platformThreads.shutdown();
+        platformThreads.awaitTermination(1, TimeUnit.MINUTES);
+
+        try {
+            run("virtual threads", charges, latencyMillis, simulated ->
+                    AsyncBillingAdapter.onVirtualThreads(simulated, TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        } catch (UnsupportedOperationException e){
+            System.out.println("virtual threads : " + e.getMessage());
+        }
+
+        // the fake's own non-blocking API, see the class comment
+        run("fake async API", charges, latencyMillis, simulated -> simulated);
+    }
+
+    private static void run(String name, int charges, long latencyMillis, Run run) {
+        SimulatedBilling simulated = new SimulatedBilling("Simulated", TimeUnit.MILLISECONDS.toMicros(latencyMillis), 0.01);
+        BillingBehaviour gateway = run.gateway(simulated);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        CompletableFuture<?>[] results = new CompletableFuture<?>[charges];
+        long amount = Money.of("USD", 100_00);
+        for (int i = 0; i < charges; i++){
+            results[i] = gateway.billAsync(amount).toCompletableFuture();
+        }
+        CompletableFuture.allOf(results).join();
+        long elapsedNanos = System.nanoTime() - start;
+
+        long approved = 0;
+        for (CompletableFuture<?> result : results){
+            if (((BillingResult) result.join()).isApproved()){
+                approved++;
+            }
+        }
+        System.out.println(String.format("%-16s : %d charges of %d ms in %d ms, %d approved, peak threads %d",
+                name, charges, latencyMillis, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), approved,
+                threads.getPeakThreadCount()));
+    }
+}
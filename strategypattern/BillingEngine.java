@@ -0,0 +1,316 @@
+package strategypattern;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+import strategypattern.PaymentsStrategyPattern.Payment;
+
+/**
+ * Bills a whole batch of payments at once, for settlement runs.
+ *
+ * Payments are grouped by gateway, i.e. by the name of their billing behaviour, not by the
+ * behaviour instance : a card payment gets its own RazorPay behaviour, and all of them still
+ * charge the same gateway. Each gateway gets up to maxInFlightPerGateway lanes, and every lane
+ * takes the next payment of its gateway as soon as the previous charge returns. So charges to
+ * one gateway are pipelined, never more than maxInFlightPerGateway of them at a time, and a
+ * slow gateway does not hold up the others.
+ *
+ * Lanes run on at most maxThreads threads. When a batch has more lanes than that, the extra
+ * lanes start as others finish.
+ */
+class BillingEngine implements AutoCloseable {
+
+    /**
+     * What became of one payment.
+     */
+    enum Outcome {
+        APPROVED,
+        DECLINED,
+        // the gateway threw
+        FAILED
+    }
+
+    // lanes of the default engine, enough for every lane of a few gateways
+    private static final int DEFAULT_GATEWAYS = 4;
+
+    private final int maxInFlightPerGateway;
+
+    private final ThreadPoolExecutor lanes;
+
+    /**
+     * An engine with threads for {@value #DEFAULT_GATEWAYS} gateways at full speed.
+     * @param maxInFlightPerGateway most charges sent to one gateway at the same time
+     */
+    BillingEngine(int maxInFlightPerGateway){
+        this(maxInFlightPerGateway, DEFAULT_GATEWAYS * maxInFlightPerGateway);
+    }
+
+    /**
+     * @param maxInFlightPerGateway most charges sent to one gateway at the same time
+     * @param maxThreads most lanes running at the same time, across all gateways
+     */
+    BillingEngine(int maxInFlightPerGateway, int maxThreads){
+        if (maxInFlightPerGateway <= 0){
+            throw new IllegalArgumentException("maxInFlightPerGateway must be positive : " + maxInFlightPerGateway);
+        }
+        if (maxThreads <= 0){
+            throw new IllegalArgumentException("maxThreads must be positive : " + maxThreads);
+        }
+        this.maxInFlightPerGateway = maxInFlightPerGateway;
+        // lanes spend their time waiting on gateways, idle threads go away after a minute
+        this.lanes = new ThreadPoolExecutor(maxThreads, maxThreads, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "billing-lane");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.lanes.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Bills every payment for its amount, with its own billing behaviour.
+     * Returns once all charges are done.
+     * @return outcome of every payment, in the iteration order of the collection
+     */
+    BatchResult billAll(Collection<? extends Payment> payments) throws InterruptedException {
+        Payment[] batch = payments.toArray(new Payment[0]);
+        Map<String, GatewayBatch> byGateway = new LinkedHashMap<>();
+        for (int i = 0; i < batch.length; i++){
+            BillingBehaviour billingBehaviour = batch[i].getBillingBehaviour();
+            String gateway = billingBehaviour == null ? "none" : billingBehaviour.getName();
+            GatewayBatch gatewayBatch = byGateway.get(gateway);
+            if (gatewayBatch == null){
+                gatewayBatch = new GatewayBatch(gateway, batch.length);
+                byGateway.put(gateway, gatewayBatch);
+            }
+            gatewayBatch.add(i);
+        }
+
+        Outcome[] outcomes = new Outcome[batch.length];
+        int laneCount = 0;
+        for (GatewayBatch gatewayBatch : byGateway.values()){
+            laneCount += gatewayBatch.laneCount(maxInFlightPerGateway);
+        }
+        CountDownLatch done = new CountDownLatch(laneCount);
+        long start = System.nanoTime();
+        for (GatewayBatch gatewayBatch : byGateway.values()){
+            int gatewayLanes = gatewayBatch.laneCount(maxInFlightPerGateway);
+            gatewayBatch.start = start;
+            gatewayBatch.lanesRunning.set(gatewayLanes);
+            for (int lane = 0; lane < gatewayLanes; lane++){
+                lanes.execute(() -> {
+                    try {
+                        gatewayBatch.runLane(batch, outcomes);
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+        }
+        // the latch also makes the lanes' writes to outcomes visible here
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+
+        List<GatewayStats> gatewayStats = new ArrayList<>();
+        for (GatewayBatch gatewayBatch : byGateway.values()){
+            gatewayStats.add(gatewayBatch.stats());
+        }
+        return new BatchResult(outcomes, gatewayStats, elapsedNanos);
+    }
+
+    /**
+     * @return most threads the engine ran at once
+     */
+    int threads(){
+        return lanes.getLargestPoolSize();
+    }
+
+    @Override
+    public void close() {
+        lanes.shutdown();
+    }
+
+    /**
+     * Payments of one gateway, and the lanes working through them.
+     */
+    private static class GatewayBatch {
+
+        final String gateway;
+
+        // indexes of the payments in the batch
+        int[] indexes;
+
+        int size;
+
+        long start;
+
+        final AtomicInteger next = new AtomicInteger();
+
+        final AtomicInteger lanesRunning = new AtomicInteger();
+
+        final AtomicLong approved = new AtomicLong();
+        final AtomicLong declined = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+
+        // set by the last lane to finish
+        volatile long elapsedNanos;
+
+        GatewayBatch(String gateway, int batchSize){
+            this.gateway = gateway;
+            this.indexes = new int[Math.min(batchSize, 16)];
+        }
+
+        void add(int index){
+            if (size == indexes.length){
+                indexes = Arrays.copyOf(indexes, 2 * size);
+            }
+            indexes[size++] = index;
+        }
+
+        int laneCount(int maxInFlight){
+            return Math.min(maxInFlight, size);
+        }
+
+        void runLane(Payment[] batch, Outcome[] outcomes){
+            long laneApproved = 0, laneDeclined = 0, laneFailed = 0;
+            try {
+                for (int i = next.getAndIncrement(); i < size; i = next.getAndIncrement()){
+                    Payment payment = batch[indexes[i]];
+                    Outcome outcome;
+                    try {
+                        outcome = payment.bill(payment.getAmount()) ? Outcome.APPROVED : Outcome.DECLINED;
+                    } catch (RuntimeException e){
+                        // one broken charge must not stop the rest of the batch
+                        outcome = Outcome.FAILED;
+                    }
+                    outcomes[indexes[i]] = outcome;
+                    if (outcome == Outcome.APPROVED){
+                        laneApproved++;
+                    }
+                    else if (outcome == Outcome.DECLINED){
+                        laneDeclined++;
+                    }
+                    else {
+                        laneFailed++;
+                    }
+                }
+            } finally {
+                approved.addAndGet(laneApproved);
+                declined.addAndGet(laneDeclined);
+                failed.addAndGet(laneFailed);
+                // every lane runs until the payments run out, so the last one out is the end of the gateway's batch
+                if (lanesRunning.decrementAndGet() == 0){
+                    elapsedNanos = System.nanoTime() - start;
+                }
+            }
+        }
+
+        GatewayStats stats(){
+            return new GatewayStats(gateway, approved.get(), declined.get(), failed.get(), elapsedNanos);
+        }
+    }
+
+    /**
+     * Throughput of one gateway during a batch.
+     */
+    static class GatewayStats {
+
+        final String gateway;
+        final long approved;
+        final long declined;
+        final long failed;
+        final long elapsedNanos;
+
+        GatewayStats(String gateway, long approved, long declined, long failed, long elapsedNanos){
+            this.gateway = gateway;
+            this.approved = approved;
+            this.declined = declined;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        long charges(){
+            return approved + declined + failed;
+        }
+
+        double chargesPerSecond(){
+            return elapsedNanos == 0 ? 0 : charges() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s : charges=%d approved=%d declined=%d failed=%d in %d ms, %.0f charges/s",
+                    gateway, charges(), approved, declined, failed,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), chargesPerSecond());
+        }
+    }
+
+    /**
+     * Outcome of every payment of a batch, and how fast it went.
+     */
+    static class BatchResult {
+
+        private final Outcome[] outcomes;
+
+        private final List<GatewayStats> gatewayStats;
+
+        private final long elapsedNanos;
+
+        BatchResult(Outcome[] outcomes, List<GatewayStats> gatewayStats, long elapsedNanos){
+            this.outcomes = outcomes;
+            this.gatewayStats = gatewayStats;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @param index position of the payment in the billed collection
+         */
+        Outcome getOutcome(int index){
+            return outcomes[index];
+        }
+
+        int size(){
+            return outcomes.length;
+        }
+
+        List<GatewayStats> getGatewayStats() {
+            return gatewayStats;
+        }
+
+        long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        long count(Outcome outcome){
+            long count = 0;
+            for (Outcome each : outcomes){
+                if (each == outcome){
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        double chargesPerSecond(){
+            return elapsedNanos == 0 ? 0 : outcomes.length * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Billed %d payments in %d ms, %.0f charges/s : approved=%d declined=%d failed=%d",
+                    outcomes.length, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), chargesPerSecond(),
+                    count(Outcome.APPROVED), count(Outcome.DECLINED), count(Outcome.FAILED));
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package strategypattern;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+import strategypattern.PaymentsStrategyPattern.CardPayment;
+import strategypattern.PaymentsStrategyPattern.Payment;
+
+/**
+ * Compares billing a settlement batch one payment at a time, as Payment.bill() does,
+ * with {@link BillingEngine#billAll} for growing in-flight limits.
+ *
+ * Payments are spread over the simulated Stripe, RazorPay and PayPal gateways. The last run
+ * gives every payment its own behaviour instance, as CardPayment does by default, which must
+ * still be billed as one gateway. The one at a time run only bills a sample, it would take
+ * minutes otherwise.
+ *
+ * Usage : BillingEngineBenchmark [payments] [sequential sample]
+ */
+public class BillingEngineBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int paymentCount = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int sample = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        BillingBehaviour[] gateways = {SimulatedBilling.stripe(), SimulatedBilling.razorPay(), SimulatedBilling.payPal()};
+        List<Payment> payments = new ArrayList<>(paymentCount);
+        for (int i = 0; i < paymentCount; i++){
+            Payment payment = new CardPayment(true, false);
+            payment.setAmount(Money.of("USD", 1_00 + i % 50_000));
+            payment.setBillingBehaviour(gateways[i % gateways.length]);
+            payments.add(payment);
+        }
+
+        long start = System.nanoTime();
+        for (Payment payment : payments.subList(0, Math.min(sample, paymentCount))){
+            payment.bill(payment.getAmount());
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        System.out.println(String.format("one at a time : %.0f charges/s (sample of %d)",
+                sample * 1e9 / elapsedNanos, sample));
+
+        for (int maxInFlight : new int[]{16, 64, 256}){
+            billAll("billAll, " + maxInFlight + " in flight per gateway", maxInFlight, payments);
+        }
+
+        List<Payment> ownBehaviourPayments = new ArrayList<>(paymentCount);
+        for (int i = 0; i < paymentCount; i++){
+            Payment payment = new CardPayment(true, false);
+            payment.setAmount(Money.of("USD", 1_00 + i % 50_000));
+            payment.setBillingBehaviour(SimulatedBilling.razorPay());
+            ownBehaviourPayments.add(payment);
+        }
+        billAll("billAll, 64 in flight, a behaviour per payment", 64, ownBehaviourPayments);
+    }
+
+    private static void billAll(String name, int maxInFlight, List<Payment> payments) throws InterruptedException {
+        try (BillingEngine engine = new BillingEngine(maxInFlight)){
+            BillingEngine.BatchResult result = engine.billAll(payments);
+            System.out.println(String.format("%s : %.0f charges/s, %d payments in %d ms, %d threads",
+                    name, result.chargesPerSecond(), result.size(),
+                    TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos()), engine.threads()));
+            for (BillingEngine.GatewayStats stats : result.getGatewayStats()){
+                System.out.println("  " + stats);
+            }
+        }
+    }
+}
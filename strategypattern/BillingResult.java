@@ -0,0 +1,96 @@
+package strategypattern;
+
+import java.util.concurrent.TimeUnit;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+
+/**
+ * Result of an asynchronous charge, see {@link BillingBehaviour#billAsync(long)}.
+ */
+final class BillingResult {
+
+    enum Status {
+        APPROVED,
+        DECLINED,
+        // the gateway threw, see getFailure()
+        FAILED,
+        // no answer in time. The charge may still go through at the gateway
+        TIMED_OUT
+    }
+
+    private final Status status;
+
+    private final String gateway;
+
+    // see Money
+    private final long amount;
+
+    private final long latencyNanos;
+
+    // null unless FAILED
+    private final Throwable failure;
+
+    BillingResult(Status status, String gateway, long amount, long latencyNanos, Throwable failure){
+        this.status = status;
+        this.gateway = gateway;
+        this.amount = amount;
+        this.latencyNanos = latencyNanos;
+        this.failure = failure;
+    }
+
+    /**
+     * Bills with the blocking API, in the calling thread.
+     */
+    static BillingResult call(BillingBehaviour gateway, long amount){
+        return call(gateway, null, amount);
+    }
+
+    /**
+     * Bills a charge that may be a retry with the blocking API, in the calling thread.
+     * @param idempotencyKey null to bill without one
+     */
+    static BillingResult call(BillingBehaviour gateway, String idempotencyKey, long amount){
+        long start = System.nanoTime();
+        try {
+            boolean approved = idempotencyKey == null ? gateway.bill(amount) : gateway.bill(idempotencyKey, amount);
+            Status status = approved ? Status.APPROVED : Status.DECLINED;
+            return new BillingResult(status, gateway.getName(), amount, System.nanoTime() - start, null);
+        } catch (RuntimeException e){
+            return new BillingResult(Status.FAILED, gateway.getName(), amount, System.nanoTime() - start, e);
+        }
+    }
+
+    static BillingResult timedOut(BillingBehaviour gateway, long amount, long timeoutNanos){
+        return new BillingResult(Status.TIMED_OUT, gateway.getName(), amount, timeoutNanos, null);
+    }
+
+    Status getStatus() {
+        return status;
+    }
+
+    boolean isApproved(){
+        return status == Status.APPROVED;
+    }
+
+    String getGateway() {
+        return gateway;
+    }
+
+    long getAmount() {
+        return amount;
+    }
+
+    long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    Throwable getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s by %s in %.1fms%s", status, Money.toString(amount), gateway,
+                latencyNanos / (double) TimeUnit.MILLISECONDS.toNanos(1), failure == null ? "" : " : " + failure.getMessage());
+    }
+}
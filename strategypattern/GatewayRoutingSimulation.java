@@ -0,0 +1,127 @@
+package strategypattern;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+
+/**
+ * Compares the charge latency seen by callers with a hand-picked gateway and with
+ * {@link AdaptiveRoutingBilling}, against simulated gateways.
+ *
+ * Stripe is the fastest but has rare long stalls, RazorPay is steady and PayPal is slow.
+ * Halfway through every run, Stripe degrades : its latency triples and a third of its
+ * charges fail. The hand-picked gateway is Stripe, as the fastest one on paper.
+ *
+ * Usage : GatewayRoutingSimulation [client threads] [charges per client]
+ */
+public class GatewayRoutingSimulation {
+
+    /**
+     * Sets up fresh gateways for each run.
+     */
+    private static class Gateways {
+
+        final SimulatedBilling stripe = new SimulatedBilling("Stripe",
+                SimulatedBilling.withSpikes(SimulatedBilling.logNormal(1_500, 0.3), 0.02, 40_000), 0.01, 0.001);
+
+        final SimulatedBilling razorPay = new SimulatedBilling("RazorPay",
+                SimulatedBilling.logNormal(2_500, 0.2), 0.01, 0.001);
+
+        final SimulatedBilling payPal = new SimulatedBilling("PayPal",
+                SimulatedBilling.logNormal(4_000, 0.3), 0.01, 0.001);
+
+        List<BillingBehaviour> all(){
+            return Arrays.asList(stripe, razorPay, payPal);
+        }
+
+        void degradeStripe(){
+            stripe.setLatency(SimulatedBilling.withSpikes(SimulatedBilling.logNormal(4_500, 0.5), 0.05, 40_000));
+            stripe.setErrorRate(0.33);
+        }
+    }
+
+    private static final long AMOUNT = Money.of("USD", 100_00);
+
+    private interface RouterFactory {
+        BillingBehaviour create(Gateways gateways);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int chargesPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        ExecutorService hedgeExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "hedge");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        run("Stripe only", gateways -> gateways.stripe, clients, chargesPerClient);
+        run("Fastest", gateways -> new AdaptiveRoutingBilling(gateways.all(), AdaptiveRoutingBilling.Mode.FASTEST),
+                clients, chargesPerClient);
+        run("Weighted", gateways -> new AdaptiveRoutingBilling(gateways.all(), AdaptiveRoutingBilling.Mode.WEIGHTED),
+                clients, chargesPerClient);
+        run("Fastest, hedged", gateways -> {
+            AdaptiveRoutingBilling router = new AdaptiveRoutingBilling(gateways.all(), AdaptiveRoutingBilling.Mode.FASTEST);
+            router.enableHedging(hedgeExecutor);
+            return router;
+        }, clients, chargesPerClient);
+        hedgeExecutor.shutdown();
+    }
+
+    private static void run(String name, RouterFactory routerFactory, int clients, int chargesPerClient)
+            throws InterruptedException {
+        Gateways gateways = new Gateways();
+        BillingBehaviour billing = routerFactory.create(gateways);
+        int total = clients * chargesPerClient;
+        long[] latencies = new long[total];
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong failures = new AtomicLong();
+
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++){
+            threads[c] = new Thread(() -> {
+                for (int i = next.getAndIncrement(); i < total; i = next.getAndIncrement()){
+                    if (i == total / 2){
+                        gateways.degradeStripe();
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        // keyed, so that the charge can be hedged
+                        billing.bill("charge-" + i, AMOUNT);
+                    } catch (RuntimeException e){
+                        failures.incrementAndGet();
+                    }
+                    latencies[i] = System.nanoTime() - start;
+                }
+            });
+            threads[c].start();
+        }
+        for (Thread thread : threads){
+            thread.join();
+        }
+
+        Arrays.sort(latencies);
+        System.out.println(String.format("%-16s : p50=%.1fms p99=%.1fms p99.9=%.1fms failed=%d/%d"
+                        + " (Stripe %d, RazorPay %d, PayPal %d charges)",
+                name, percentile(latencies, 50) / 1e6, percentile(latencies, 99) / 1e6,
+                percentile(latencies, 99.9) / 1e6, failures.get(), total,
+                gateways.stripe.getCharges(), gateways.razorPay.getCharges(), gateways.payPal.getCharges()));
+        if (billing instanceof AdaptiveRoutingBilling){
+            for (String route : ((AdaptiveRoutingBilling) billing).describeRoutes()){
+                System.out.println("    " + route);
+            }
+            System.out.println("    " + ((AdaptiveRoutingBilling) billing).describeHedging());
+        }
+    }
+
+    private static long percentile(long[] sorted, double percentile){
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,380 @@
+package strategypattern;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import strategypattern.PaymentsStrategyPattern.BillingBehaviour;
+
+/**
+ * Billing behaviour that bills each idempotency key at most once, so that a retried charge
+ * is not charged twice.
+ *
+ * The first call with a key goes to the gateway. Calls with the same key get the cached result
+ * of that charge, and duplicates that arrive while it is still in flight wait for it instead of
+ * billing again, up to the wait timeout. A charge that throws is not cached, so it can be
+ * retried. Reusing a key for another amount is refused.
+ *
+ * {@link #billAsync(String, long)} deduplicates the same way, with the gateway's own billAsync.
+ * An asynchronous charge that fails or times out is not cached either; the key still goes to
+ * the gateway, for gateways that deduplicate on their side.
+ *
+ * Results are kept for a time to live, and the oldest ones are evicted once the cache is full.
+ * Entries are evicted in insertion order, which is also expiry order as all share the same
+ * time to live. A charge still in flight is never evicted, the cache may go over its size for
+ * as long as it waits.
+ */
+class IdempotentBilling implements BillingBehaviour {
+
+    /**
+     * A charge, in flight or done.
+     */
+    private static final class Entry {
+
+        final String key;
+
+        final long amount;
+
+        final long createdAtNanos;
+
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        Entry(String key, long amount, long createdAtNanos){
+            this.key = key;
+            this.amount = amount;
+            this.createdAtNanos = createdAtNanos;
+        }
+    }
+
+    private final BillingBehaviour gateway;
+
+    private final int maxEntries;
+
+    private final long timeToLiveNanos;
+
+    private final long waitTimeoutNanos;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // entries in insertion order, for eviction. May hold entries already removed from the map
+    private final ConcurrentLinkedQueue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // how long a duplicate waits for the charge in flight by default
+    private static final long DEFAULT_WAIT_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * @param maxEntries results kept at most
+     * @param timeToLive how long a result is kept
+     */
+    IdempotentBilling(BillingBehaviour gateway, int maxEntries, long timeToLive, TimeUnit unit){
+        this(gateway, maxEntries, timeToLive, unit, DEFAULT_WAIT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param waitTimeoutMillis how long a duplicate waits for the charge in flight before giving up
+     */
+    IdempotentBilling(BillingBehaviour gateway, int maxEntries, long timeToLive, TimeUnit unit, long waitTimeoutMillis){
+        if (maxEntries <= 0){
+            throw new IllegalArgumentException("maxEntries must be positive : " + maxEntries);
+        }
+        this.gateway = gateway;
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.waitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+    }
+
+    /**
+     * No key, so nothing to deduplicate on : always goes to the gateway.
+     */
+    @Override
+    public boolean bill(long amount) {
+        return gateway.bill(amount);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key was used for another amount
+     * @throws IllegalStateException if the charge in flight with that key did not finish within the wait timeout
+     */
+    @Override
+    public boolean bill(String idempotencyKey, long amount) {
+        Money.check(amount);
+        while (true){
+            Entry entry = new Entry(idempotencyKey, amount, System.nanoTime());
+            Entry existing = claim(entry);
+            if (existing == null){
+                return charge(entry);
+            }
+            try {
+                return existing.result.get(waitTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e){
+                // the charge we waited for failed and was dropped from the cache, try it ourselves
+                continue;
+            } catch (TimeoutException e){
+                throw new IllegalStateException("Charge with idempotency key " + idempotencyKey + " still in flight after "
+                        + TimeUnit.NANOSECONDS.toMillis(waitTimeoutNanos) + " ms");
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the charge with idempotency key "
+                        + idempotencyKey, e);
+            }
+        }
+    }
+
+    /**
+     * No key, so nothing to deduplicate on : always goes to the gateway.
+     */
+    @Override
+    public CompletionStage<BillingResult> billAsync(long amount) {
+        return gateway.billAsync(amount);
+    }
+
+    /**
+     * Like {@link #bill(String, long)}, without waiting. A duplicate that waited longer than
+     * the wait timeout completes as {@link BillingResult.Status#TIMED_OUT}, and reusing a key
+     * for another amount as {@link BillingResult.Status#FAILED}.
+     */
+    @Override
+    public CompletionStage<BillingResult> billAsync(String idempotencyKey, long amount) {
+        Money.check(amount);
+        Entry entry = new Entry(idempotencyKey, amount, System.nanoTime());
+        Entry existing;
+        try {
+            existing = claim(entry);
+        } catch (IllegalArgumentException e){
+            return CompletableFuture.completedFuture(
+                    new BillingResult(BillingResult.Status.FAILED, getName(), amount, 0, e));
+        }
+        if (existing == null){
+            return chargeAsync(entry);
+        }
+        long start = System.nanoTime();
+        return existing.result
+                .thenApply(approved -> new BillingResult(approved ? BillingResult.Status.APPROVED : BillingResult.Status.DECLINED,
+                        getName(), amount, System.nanoTime() - start, null))
+                .orTimeout(waitTimeoutNanos, TimeUnit.NANOSECONDS)
+                .exceptionallyCompose(failure -> failure instanceof TimeoutException
+                        ? CompletableFuture.completedFuture(BillingResult.timedOut(this, amount, waitTimeoutNanos))
+                        // the charge we waited for failed and was dropped from the cache, try it ourselves
+                        : billAsync(idempotencyKey, amount));
+    }
+
+    /**
+     * Puts the entry in the cache, unless there is a live one for its key.
+     * @return null if the caller must charge the entry, else the charge to wait for
+     * @throws IllegalArgumentException if the key was used for another amount
+     */
+    private Entry claim(Entry entry){
+        while (true){
+            Entry existing = entries.putIfAbsent(entry.key, entry);
+            if (existing == null){
+                misses.increment();
+                insertionOrder.add(entry);
+                evict(entry.createdAtNanos);
+                return null;
+            }
+            if (entry.createdAtNanos - existing.createdAtNanos >= timeToLiveNanos && existing.result.isDone()){
+                // expired, make way for a new charge
+                entries.remove(entry.key, existing);
+                continue;
+            }
+            if (existing.amount != entry.amount){
+                throw new IllegalArgumentException("Idempotency key " + entry.key + " was used for "
+                        + Money.toString(existing.amount) + ", not " + Money.toString(entry.amount));
+            }
+            if (existing.result.isDone()){
+                hits.increment();
+            }
+            else {
+                waits.increment();
+            }
+            return existing;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return gateway.getName();
+    }
+
+    private boolean charge(Entry entry){
+        boolean approved;
+        try {
+            approved = gateway.bill(entry.key, entry.amount);
+        } catch (RuntimeException e){
+            // not cached, a retry goes to the gateway again
+            entries.remove(entry.key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+        entry.result.complete(approved);
+        return approved;
+    }
+
+    private CompletionStage<BillingResult> chargeAsync(Entry entry){
+        CompletionStage<BillingResult> charge;
+        try {
+            charge = gateway.billAsync(entry.key, entry.amount);
+        } catch (RuntimeException e){
+            charge = CompletableFuture.completedFuture(
+                    new BillingResult(BillingResult.Status.FAILED, getName(), entry.amount, 0, e));
+        }
+        return charge.whenComplete((result, failure) -> {
+            if (failure == null && (result.getStatus() == BillingResult.Status.APPROVED
+                    || result.getStatus() == BillingResult.Status.DECLINED)){
+                entry.result.complete(result.isApproved());
+                return;
+            }
+            // not cached, a retry goes to the gateway again
+            entries.remove(entry.key, entry);
+            entry.result.completeExceptionally(failure != null ? failure
+                    : result.getFailure() != null ? result.getFailure()
+                    : new IllegalStateException("Charge with idempotency key " + entry.key + " " + result.getStatus()));
+        });
+    }
+
+    /**
+     * Drops expired entries, then the oldest ones while the cache is over its size.
+     * Stops at the first charge still in flight.
+     */
+    private void evict(long now){
+        while (true){
+            Entry oldest = insertionOrder.peek();
+            if (oldest == null){
+                return;
+            }
+            boolean expired = now - oldest.createdAtNanos >= timeToLiveNanos;
+            if (entries.get(oldest.key) != oldest){
+                // already replaced or removed
+                insertionOrder.remove(oldest);
+                continue;
+            }
+            if (!oldest.result.isDone() || (!expired && entries.size() <= maxEntries)){
+                return;
+            }
+            if (insertionOrder.remove(oldest) && entries.remove(oldest.key, oldest)){
+                evictions.increment();
+            }
+        }
+    }
+
+    CacheStats getStats(){
+        return new CacheStats(hits.sum(), misses.sum(), waits.sum(), evictions.sum(), entries.size());
+    }
+
+    /**
+     * Counters of the cache.
+     */
+    static class CacheStats {
+
+        // duplicates answered from a finished charge
+        final long hits;
+        // charges sent to the gateway
+        final long misses;
+        // duplicates that waited for a charge in flight
+        final long waits;
+        final long evictions;
+        final int size;
+
+        CacheStats(long hits, long misses, long waits, long evictions, int size){
+            this.hits = hits;
+            this.misses = misses;
+            this.waits = waits;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d waits=%d evictions=%d size=%d", hits, misses, waits, evictions, size);
+        }
+    }
+
+    /**
+     * Stress test : many threads bill the same keys in random orders, at the same time.
+     * Every key must be charged once, and all threads must see the same result for it.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final int keys = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        final long amount = Money.of("USD", 42_00);
+
+        // quick charges that are declined half of the time, so that a mixed up result shows
+        SimulatedBilling simulated = new SimulatedBilling("Simulated", 50, 0.5);
+        final IdempotentBilling billing = new IdempotentBilling(simulated, 2 * keys, 1, TimeUnit.HOURS);
+        // 0 = not seen yet, 1 = approved, 2 = declined
+        final AtomicIntegerArray results = new AtomicIntegerArray(keys);
+        final LongAdder mismatches = new LongAdder();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++){
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                // every thread walks the keys from its own offset, in its own direction
+                int offset = random.nextInt(keys);
+                int step = random.nextBoolean() ? 1 : keys - 1;
+                try {
+                    start.await();
+                } catch (InterruptedException e){
+                    return;
+                }
+                for (int i = 0, k = offset; i < keys; i++, k = (k + step) % keys){
+                    int result = billing.bill("payment-" + k, amount) ? 1 : 2;
+                    if (!results.compareAndSet(k, 0, result) && results.get(k) != result){
+                        mismatches.increment();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers){
+            worker.join();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        System.out.println(String.format("%d threads x %d keys in %d ms : gateway charges=%d, mismatched results=%d, %s",
+                threads, keys, elapsedMillis, simulated.getCharges(), mismatches.sum(), billing.getStats()));
+        if (simulated.getCharges() != keys || mismatches.sum() != 0){
+            throw new IllegalStateException("Duplicate charges went through");
+        }
+
+        // billing asynchronously goes through the same cache : retries of billed keys are not
+        // charged again, and two charges of a new key at the same time are charged once
+        long chargesBefore = simulated.getCharges();
+        CompletableFuture<?>[] retries = new CompletableFuture<?>[keys + 2];
+        for (int k = 0; k < keys; k++){
+            retries[k] = billing.billAsync("payment-" + k, amount).toCompletableFuture();
+        }
+        retries[keys] = billing.billAsync("async-payment", amount).toCompletableFuture();
+        retries[keys + 1] = billing.billAsync("async-payment", amount).toCompletableFuture();
+        CompletableFuture.allOf(retries).join();
+        System.out.println(String.format("Async retries of %d keys and 2 new charges : gateway charges=%d",
+                keys, simulated.getCharges() - chargesBefore));
+        if (simulated.getCharges() - chargesBefore != 1){
+            throw new IllegalStateException("Async retries went through");
+        }
+
+        // keys reused for another amount are refused
+        try {
+            billing.bill("payment-0", Money.of("USD", 1_00));
+            throw new IllegalStateException("Key reused for another amount was billed");
+        } catch (IllegalArgumentException expected){
+            System.out.println("Refused : " + expected.getMessage());
+        }
+    }
+}
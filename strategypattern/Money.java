@@ -0,0 +1,187 @@
+package strategypattern;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Amount of money packed into a single long : a whole number of minor units (cents, pence...)
+ * and a currency code. Exact, unlike a double, and computed on without allocating, unlike a
+ * BigDecimal.
+ *
+ * Layout : the low 48 bits are the signed amount in minor units, enough for about
+ * +- 1.4 trillion dollars. The 15 bits above are the ISO 4217 code, 5 bits per letter.
+ * A money value therefore never has currency bits of 0, which {@link #check(long)} uses to
+ * catch plain numbers passed where money is expected.
+ *
+ * Arithmetic only mixes amounts of the same currency, and throws ArithmeticException on
+ * overflow rather than wrapping around.
+ */
+final class Money {
+
+    private static final int AMOUNT_BITS = 48;
+
+    private static final long AMOUNT_MASK = (1L << AMOUNT_BITS) - 1;
+
+    static final long MAX_MINOR_UNITS = (1L << (AMOUNT_BITS - 1)) - 1;
+
+    static final long MIN_MINOR_UNITS = -(1L << (AMOUNT_BITS - 1));
+
+    private Money(){
+        // only static helpers, money is a long
+    }
+
+    /**
+     * @param currency ISO 4217 code, like "USD"
+     * @param minorUnits amount in the smallest unit of the currency, like cents
+     */
+    static long of(String currency, long minorUnits){
+        return of(currencyCode(currency), minorUnits);
+    }
+
+    /**
+     * @param currencyCode as returned by {@link #currencyCode(String)}
+     */
+    static long of(int currencyCode, long minorUnits){
+        if (minorUnits < MIN_MINOR_UNITS || minorUnits > MAX_MINOR_UNITS){
+            throw new ArithmeticException("Amount out of range : " + minorUnits);
+        }
+        return ((long) currencyCode << AMOUNT_BITS) | (minorUnits & AMOUNT_MASK);
+    }
+
+    static long minorUnits(long money){
+        // shift the sign bit of the amount up and back, to sign extend it
+        return (money << (Long.SIZE - AMOUNT_BITS)) >> (Long.SIZE - AMOUNT_BITS);
+    }
+
+    static int currencyCode(long money){
+        return (int) (money >>> AMOUNT_BITS);
+    }
+
+    static String currency(long money){
+        int code = currencyCode(money);
+        return new String(new char[]{
+                (char) ('A' - 1 + ((code >> 10) & 0x1F)),
+                (char) ('A' - 1 + ((code >> 5) & 0x1F)),
+                (char) ('A' - 1 + (code & 0x1F))});
+    }
+
+    /**
+     * @param currency ISO 4217 code, three letters A to Z
+     * @return the code as stored in a money value
+     */
+    static int currencyCode(String currency){
+        if (currency.length() != 3){
+            throw new IllegalArgumentException("Not a currency code : " + currency);
+        }
+        int code = 0;
+        for (int i = 0; i < 3; i++){
+            char letter = currency.charAt(i);
+            if (letter < 'A' || letter > 'Z'){
+                throw new IllegalArgumentException("Not a currency code : " + currency);
+            }
+            code = (code << 5) | (letter - 'A' + 1);
+        }
+        return code;
+    }
+
+    /**
+     * @return the money, once checked to be one
+     * @throws IllegalArgumentException if it has no valid currency, e.g. a plain number
+     */
+    static long check(long money){
+        int code = currencyCode(money);
+        boolean valid = (code >> 15) == 0;
+        for (int shift = 0; shift <= 10; shift += 5){
+            int letter = (code >> shift) & 0x1F;
+            valid &= letter >= 1 && letter <= 26;
+        }
+        if (!valid){
+            throw new IllegalArgumentException("Not a money value : " + money);
+        }
+        return money;
+    }
+
+    static long plus(long a, long b){
+        checkSameCurrency(a, b);
+        return of(currencyCode(a), minorUnits(a) + minorUnits(b));
+    }
+
+    static long minus(long a, long b){
+        checkSameCurrency(a, b);
+        return of(currencyCode(a), minorUnits(a) - minorUnits(b));
+    }
+
+    static long times(long money, long factor){
+        return of(currencyCode(money), Math.multiplyExact(minorUnits(money), factor));
+    }
+
+    /**
+     * Multiplies by numerator / denominator, rounding half to even like banks do.
+     * For fees and taxes, e.g. scale(money, 29, 1000) for 2.9%.
+     */
+    static long scale(long money, long numerator, long denominator){
+        if (denominator <= 0){
+            throw new IllegalArgumentException("denominator must be positive : " + denominator);
+        }
+        long product = Math.multiplyExact(minorUnits(money), numerator);
+        long quotient = Math.floorDiv(product, denominator);
+        long twiceRemainder = 2 * Math.floorMod(product, denominator);
+        if (twiceRemainder > denominator || (twiceRemainder == denominator && (quotient & 1) != 0)){
+            quotient++;
+        }
+        return of(currencyCode(money), quotient);
+    }
+
+    static int compare(long a, long b){
+        checkSameCurrency(a, b);
+        return Long.compare(minorUnits(a), minorUnits(b));
+    }
+
+    static boolean isSameCurrency(long a, long b){
+        return currencyCode(a) == currencyCode(b);
+    }
+
+    /**
+     * @return the amount in major units, like dollars. Allocates, for display and interop
+     */
+    static BigDecimal toBigDecimal(long money){
+        return BigDecimal.valueOf(minorUnits(money), fractionDigits(currency(money)));
+    }
+
+    /**
+     * @return money in the "USD 12.34" format
+     */
+    static String toString(long money){
+        return currency(money) + " " + toBigDecimal(money).toPlainString();
+    }
+
+    /**
+     * @param money money in the "USD 12.34" format, with at most the currency's number of decimals
+     */
+    static long parse(String money){
+        int space = money.indexOf(' ');
+        if (space < 0){
+            throw new IllegalArgumentException("Not a money value : " + money);
+        }
+        String currency = money.substring(0, space);
+        try {
+            BigDecimal amount = new BigDecimal(money.substring(space + 1))
+                    .setScale(fractionDigits(currency), RoundingMode.UNNECESSARY);
+            return of(currency, amount.unscaledValue().longValueExact());
+        } catch (ArithmeticException e){
+            throw new IllegalArgumentException("Not an exact amount of " + currency + " : " + money, e);
+        }
+    }
+
+    private static int fractionDigits(String currency){
+        // -1 for currencies without minor units, like gold
+        return Math.max(0, Currency.getInstance(currency).getDefaultFractionDigits());
+    }
+
+    private static void checkSameCurrency(long a, long b){
+        if (currencyCode(a) != currencyCode(b)){
+            throw new IllegalArgumentException("Currencies differ : " + currency(a) + " and " + currency(b));
+        }
+    }
+}
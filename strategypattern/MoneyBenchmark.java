@@ -0,0 +1,84 @@
+package strategypattern;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Compares {@link Money} with BigDecimal on a settlement style workload : for every payment,
+ * take a 2.9% fee rounded half to even, and sum the amounts and the fees.
+ *
+ * Runs the same workload over BigDecimal[], over long[] with Money, and over a
+ * {@link PaymentBatch}, and prints ns and bytes allocated per payment.
+ *
+ * Usage : MoneyBenchmark [payments] [rounds]
+ */
+public class MoneyBenchmark {
+
+    private static final BigDecimal FEE_RATE = new BigDecimal("0.029");
+
+    private interface Workload {
+        // returns a checksum, so that the JIT can't drop the work
+        long run();
+    }
+
+    public static void main(String[] args) {
+        int payments = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        BigDecimal[] decimals = new BigDecimal[payments];
+        long[] moneys = new long[payments];
+        PaymentBatch batch = new PaymentBatch(payments);
+        for (int i = 0; i < payments; i++){
+            long cents = 1_00 + (i * 7919L) % 100_000;
+            decimals[i] = BigDecimal.valueOf(cents, 2);
+            moneys[i] = Money.of("USD", cents);
+            batch.add(moneys[i], i % 3);
+        }
+
+        measure("BigDecimal", payments, rounds, () -> {
+            BigDecimal total = BigDecimal.ZERO;
+            BigDecimal fees = BigDecimal.ZERO;
+            for (BigDecimal amount : decimals){
+                total = total.add(amount);
+                fees = fees.add(amount.multiply(FEE_RATE).setScale(2, RoundingMode.HALF_EVEN));
+            }
+            return total.unscaledValue().longValue() + fees.unscaledValue().longValue();
+        });
+        measure("Money long[]", payments, rounds, () -> {
+            long total = Money.of("USD", 0);
+            long fees = total;
+            for (long amount : moneys){
+                total = Money.plus(total, amount);
+                fees = Money.plus(fees, Money.scale(amount, 29, 1000));
+            }
+            return Money.minorUnits(total) + Money.minorUnits(fees);
+        });
+        measure("PaymentBatch", payments, rounds, () -> {
+            long fees = Money.of("USD", 0);
+            for (int i = 0, size = batch.size(); i < size; i++){
+                fees = Money.plus(fees, Money.scale(batch.amount(i), 29, 1000));
+            }
+            return batch.total("USD") + Money.minorUnits(fees);
+        });
+    }
+
+    private static void measure(String name, int payments, int rounds, Workload workload){
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        // warm up so that the JIT has compiled the loop before we measure
+        long checksum = workload.run() + workload.run();
+
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++){
+            checksum += workload.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long operations = (long) payments * rounds;
+        System.out.println(String.format("%-14s : %.1f ns/payment, %.1f bytes/payment (checksum %d)",
+                name, (double) elapsed / operations, (double) allocated / operations, checksum));
+    }
+}
@@ -0,0 +1,133 @@
+package strategypattern;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+
+/**
+ * Millions of payments stored column by column, off the heap, for settlement and reporting.
+ *
+ * One column holds the amounts (see {@link Money}), one the gateway of each payment as
+ * a small index, and one its billing status. Columns live in direct buffers, so a batch
+ * of 10 million payments adds 100 MB outside the heap and nothing for the GC to trace,
+ * and aggregating a column is a straight scan over consecutive longs.
+ *
+ * Not thread safe, a batch is filled and then aggregated by one thread at a time.
+ */
+final class PaymentBatch {
+
+    // status column, NOT_BILLED or 1 + BillingResult.Status ordinal
+    private static final byte NOT_BILLED = 0;
+
+    private static final BillingResult.Status[] STATUSES = BillingResult.Status.values();
+
+    // a direct buffer holds at most Integer.MAX_VALUE bytes, and the amount column takes 8 per payment
+    static final int MAX_CAPACITY = Integer.MAX_VALUE / Long.BYTES;
+
+    private final int capacity;
+
+    private final LongBuffer amounts;
+
+    private final ByteBuffer gateways;
+
+    private final ByteBuffer statuses;
+
+    private int size;
+
+    /**
+     * @param capacity max number of payments, up to {@link #MAX_CAPACITY}
+     */
+    PaymentBatch(int capacity){
+        long amountBytes = (long) capacity * Long.BYTES;
+        if (capacity < 0 || amountBytes > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("capacity out of range : " + capacity + ", max " + MAX_CAPACITY);
+        }
+        this.capacity = capacity;
+        this.amounts = ByteBuffer.allocateDirect((int) amountBytes).order(ByteOrder.nativeOrder()).asLongBuffer();
+        this.gateways = ByteBuffer.allocateDirect(capacity);
+        this.statuses = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * @param amount see {@link Money}
+     * @param gateway index of the gateway, 0 to 255
+     * @return index of the payment in the batch
+     */
+    int add(long amount, int gateway){
+        if (size == capacity){
+            throw new IllegalStateException("Batch is full : " + capacity);
+        }
+        if (gateway < 0 || gateway > 255){
+            throw new IllegalArgumentException("gateway out of range : " + gateway);
+        }
+        int index = size++;
+        amounts.put(index, Money.check(amount));
+        gateways.put(index, (byte) gateway);
+        statuses.put(index, NOT_BILLED);
+        return index;
+    }
+
+    long amount(int index){
+        return amounts.get(checkIndex(index));
+    }
+
+    int gateway(int index){
+        return gateways.get(checkIndex(index)) & 0xFF;
+    }
+
+    /**
+     * @return the billing status, null if not billed yet
+     */
+    BillingResult.Status status(int index){
+        byte status = statuses.get(checkIndex(index));
+        return status == NOT_BILLED ? null : STATUSES[status - 1];
+    }
+
+    void setStatus(int index, BillingResult.Status status){
+        statuses.put(checkIndex(index), (byte) (status.ordinal() + 1));
+    }
+
+    int size(){
+        return size;
+    }
+
+    /**
+     * @return sum of the amounts in the currency, in minor units. Other currencies are skipped
+     * @throws ArithmeticException if the sum overflows a long
+     */
+    long total(String currency){
+        int currencyCode = Money.currencyCode(currency);
+        long total = 0;
+        for (int i = 0; i < size; i++){
+            long amount = amounts.get(i);
+            if (Money.currencyCode(amount) == currencyCode){
+                total = Math.addExact(total, Money.minorUnits(amount));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return sum of the amounts in the currency with the given status, in minor units, indexed by gateway
+     */
+    long[] totalsByGateway(String currency, BillingResult.Status status){
+        int currencyCode = Money.currencyCode(currency);
+        byte wanted = (byte) (status.ordinal() + 1);
+        long[] totals = new long[256];
+        for (int i = 0; i < size; i++){
+            long amount = amounts.get(i);
+            if (statuses.get(i) == wanted && Money.currencyCode(amount) == currencyCode){
+                int gateway = gateways.get(i) & 0xFF;
+                totals[gateway] = Math.addExact(totals[gateway], Money.minorUnits(amount));
+            }
+        }
+        return totals;
+    }
+
+    private int checkIndex(int index){
+        if (index < 0 || index >= size){
+            throw new IndexOutOfBoundsException("No payment at " + index + ", size " + size);
+        }
+        return index;
+    }
+}
@@ -1,5 +1,14 @@
 package strategypattern;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by priyankvex on 13/5/17.
  *
@@ -16,12 +25,16 @@ public class PaymentsStrategyPattern {
     /**
      * Base payment class
      */
-    private static abstract class Payment {
+    static abstract class Payment {
 
-        double amount;
+        // see Money
+        long amount;
 
         BillingBehaviour billingBehaviour;
 
+        // the same for every attempt to bill this payment, so that gateways can tell retries apart
+        String idempotencyKey = UUID.randomUUID().toString();
+
         public BillingBehaviour getBillingBehaviour() {
             return billingBehaviour;
         }
@@ -34,25 +47,51 @@ public class PaymentsStrategyPattern {
             this.billingBehaviour = billingBehaviour;
         }
 
-        public double getAmount() {
+        public String getIdempotencyKey() {
+            return idempotencyKey;
+        }
+
+        public void setIdempotencyKey(String idempotencyKey) {
+            this.idempotencyKey = idempotencyKey;
+        }
+
+        /**
+         * @return amount to be billed, see {@link Money}
+         */
+        public long getAmount() {
             return amount;
         }
 
-        public void setAmount(double amount) {
-            this.amount = amount;
+        /**
+         * @param amount amount to be billed, see {@link Money}
+         */
+        public void setAmount(long amount) {
+            this.amount = Money.check(amount);
         }
 
         /**
          * Method called to perform billing
-         * @param amount amount to be billed
+         * @param amount amount to be billed, see {@link Money}
+         * @return true if the gateway accepted the charge
+         * @throws IllegalArgumentException if the amount is a plain number rather than money
          */
-        void bill(double amount){
+        boolean bill(long amount){
             // delegate the task to billing behaviour
-            billingBehaviour.bill(amount);
+            return billingBehaviour.bill(idempotencyKey, Money.check(amount));
+        }
+
+        /**
+         * Same as {@link #bill(long)}, without waiting for the gateway. Retries carry the same
+         * idempotency key as well
+         * @param amount amount to be billed, see {@link Money}
+         * @throws IllegalArgumentException if the amount is a plain number rather than money
+         */
+        CompletionStage<BillingResult> billAsync(long amount){
+            return billingBehaviour.billAsync(idempotencyKey, Money.check(amount));
         }
     }
 
-    private static class CardPayment extends Payment {
+    static class CardPayment extends Payment {
 
         private boolean isCreditCard;
         private boolean isDebitCard;
@@ -77,19 +116,74 @@ public class PaymentsStrategyPattern {
     }
 
     /**
-     * Interface to define the billing behaviour
+     * Interface to define the billing behaviour.
+     * Amounts are money values (see {@link Money}). Every implementation checks them with
+     * {@link Money#check(long)} when called, so that a plain number like bill(1234) is rejected
+     * with an IllegalArgumentException instead of being charged without a currency.
+     */
+    interface BillingBehaviour{
+
+        /**
+         * @param amount amount to be billed, see {@link Money}
+         * @return true if the charge was approved
+         */
+        boolean bill(long amount);
+
+        /**
+         * Bills a charge that may be a retry of an earlier one. Behaviours that deduplicate
+         * charges, like {@link IdempotentBilling}, bill each key at most once; the default
+         * ignores the key.
+         * @param idempotencyKey same for all attempts of one charge
+         */
+        default boolean bill(String idempotencyKey, long amount){
+            return bill(Money.check(amount));
+        }
+
+        /**
+         * Bills without making the caller wait for the gateway.
+         * The default runs {@link #bill(long)} in the calling thread, so it does block;
+         * wrap blocking behaviours in an {@link AsyncBillingAdapter} to run them elsewhere.
+         */
+        default CompletionStage<BillingResult> billAsync(long amount){
+            return CompletableFuture.completedFuture(BillingResult.call(this, Money.check(amount)));
+        }
+
+        /**
+         * {@link #billAsync(long)} for a charge that may be a retry, see {@link #bill(String, long)}.
+         * The default runs {@link #bill(String, long)} in the calling thread.
+         */
+        default CompletionStage<BillingResult> billAsync(String idempotencyKey, long amount){
+            return CompletableFuture.completedFuture(BillingResult.call(this, idempotencyKey, Money.check(amount)));
+        }
+
+        /**
+         * @return name of the gateway, for logs and stats
+         */
+        default String getName(){
+            return getClass().getSimpleName();
+        }
+    }
+
+    /**
+     * A billing behaviour whose approved charges can be voided, i.e. cancelled before they settle.
      */
-    private static interface BillingBehaviour{
-        boolean bill(double amount);
+    interface VoidableBilling extends BillingBehaviour {
+
+        /**
+         * Voids the approved charge billed with that key.
+         * @throws IllegalStateException if the gateway could not void it
+         */
+        void voidCharge(String idempotencyKey, long amount);
     }
 
     /**
      * Implementation of Stripe billing behaviour
      */
-    private static class StripeBilling implements BillingBehaviour {
+    static class StripeBilling implements BillingBehaviour {
 
         @Override
-        public boolean bill(double amount) {
+        public boolean bill(long amount) {
+            Money.check(amount);
             System.out.println("Billing using Sprint Billing API");
             return true;
         }
@@ -98,10 +192,11 @@ public class PaymentsStrategyPattern {
     /**
      * Implementation of RazorPay billing behaviour
      */
-    private static class RazorPayBilling implements BillingBehaviour {
+    static class RazorPayBilling implements BillingBehaviour {
 
         @Override
-        public boolean bill(double amount) {
+        public boolean bill(long amount) {
+            Money.check(amount);
             System.out.println("Billing using RazorPay Billing API");
             return true;
         }
@@ -110,29 +205,61 @@ public class PaymentsStrategyPattern {
     /**
      * Implementation of PayPal billing behaviour
      */
-    private static class PayPalBilling implements BillingBehaviour {
+    static class PayPalBilling implements BillingBehaviour {
 
         @Override
-        public boolean bill(double amount) {
+        public boolean bill(long amount) {
+            Money.check(amount);
             System.out.println("Billing using PayPal API");
             return true;
         }
     }
 
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException {
 
         // Programming to a super type
         Payment payment = new CardPayment(true, false);
         // set the billing behaviour at runtime
         payment.setBillingBehaviour(new PayPalBilling());
         // billed by PayPal API
-        payment.bill(1234);
+        payment.bill(Money.of("USD", 1234_00));
         // set the billing behaviour at runtime
         payment.setBillingBehaviour(new RazorPayBilling());
         // billed by RazorPay API
-        payment.bill(1234);
+        payment.bill(Money.of("USD", 1234_00));
+
+        // or bill without waiting for the gateway, giving up after a second
+        ExecutorService chargeExecutor = Executors.newCachedThreadPool();
+        payment.setBillingBehaviour(new AsyncBillingAdapter(SimulatedBilling.stripe(), chargeExecutor, 1, TimeUnit.SECONDS));
+        payment.billAsync(Money.of("USD", 1234_00)).thenAccept(result -> System.out.println("Async charge : " + result))
+                .toCompletableFuture().join();
+        chargeExecutor.shutdown();
+
+        // retries of the same payment are only charged once
+        SimulatedBilling stripe = SimulatedBilling.stripe();
+        IdempotentBilling idempotentBilling = new IdempotentBilling(stripe, 10_000, 24, TimeUnit.HOURS);
+        payment.setBillingBehaviour(idempotentBilling);
+        payment.bill(Money.of("USD", 1234_00));
+        payment.bill(Money.of("USD", 1234_00));
+        System.out.println("Stripe charged " + stripe.getCharges() + " time(s) : " + idempotentBilling.getStats());
 
+        // at settlement time, bill a whole batch at once. Stand-in gateways, so we don't spam the console
+        BillingBehaviour[] gateways = {SimulatedBilling.stripe(), SimulatedBilling.razorPay(), SimulatedBilling.payPal()};
+        List<Payment> settlement = new ArrayList<>();
+        for (int i = 0; i < 3000; i++){
+            Payment cardPayment = new CardPayment(true, false);
+            cardPayment.setAmount(Money.of("USD", 10_00 + i % 9000));
+            cardPayment.setBillingBehaviour(gateways[i % gateways.length]);
+            settlement.add(cardPayment);
+        }
+        try (BillingEngine billingEngine = new BillingEngine(64)){
+            BillingEngine.BatchResult result = billingEngine.billAll(settlement);
+            System.out.println(result);
+            for (BillingEngine.GatewayStats stats : result.getGatewayStats()){
+                System.out.println("  " + stats);
+            }
+        }
     }
 
 
@@ -0,0 +1,188 @@
+package strategypattern;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import strategypattern.PaymentsStrategyPattern.VoidableBilling;
+
+/**
+ * Local stand-in for a payment gateway, to try out billing code without calling the real APIs.
+ *
+ * Every charge waits for a latency drawn from the gateway's {@link LatencyDistribution}, like
+ * a network round trip would. It then fails at the error rate, by throwing, or is declined at
+ * the decline rate. Latency and error rate can be changed on the fly, to make a gateway degrade.
+ * Nothing is printed, so millions of charges can go through it.
+ *
+ * {@link #billAsync(long)} is truly asynchronous, like a gateway client with a non-blocking
+ * HTTP stack : the answer arrives on a timer, and no thread waits for it in between.
+ */
+class SimulatedBilling implements VoidableBilling {
+
+    /**
+     * Latency of the charges of a gateway.
+     */
+    interface LatencyDistribution {
+        long nextNanos(ThreadLocalRandom random);
+    }
+
+    // delivers the answers of asynchronous charges once their latency is over
+    private static final ScheduledExecutorService NETWORK = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "simulated-network");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+
+    private final double declineRate;
+
+    private volatile LatencyDistribution latency;
+
+    private volatile double errorRate;
+
+    private final AtomicLong charges = new AtomicLong();
+
+    private final AtomicLong voids = new AtomicLong();
+
+    /**
+     * @param latencyMicros how long each charge takes
+     * @param declineRate share of the charges that are declined, between 0 and 1
+     */
+    SimulatedBilling(String name, long latencyMicros, double declineRate){
+        this(name, fixed(latencyMicros), declineRate, 0);
+    }
+
+    /**
+     * @param errorRate share of the charges that throw, between 0 and 1
+     */
+    SimulatedBilling(String name, LatencyDistribution latency, double declineRate, double errorRate){
+        this.name = name;
+        this.latency = latency;
+        this.declineRate = declineRate;
+        this.errorRate = errorRate;
+    }
+
+    static SimulatedBilling stripe(){
+        return new SimulatedBilling("Stripe", 2_000, 0.01);
+    }
+
+    static SimulatedBilling razorPay(){
+        return new SimulatedBilling("RazorPay", 3_000, 0.02);
+    }
+
+    static SimulatedBilling payPal(){
+        return new SimulatedBilling("PayPal", 5_000, 0.01);
+    }
+
+    static LatencyDistribution fixed(long micros){
+        long nanos = TimeUnit.MICROSECONDS.toNanos(micros);
+        return random -> nanos;
+    }
+
+    /**
+     * Log-normal latency, the usual shape of network round trips : most calls near the median,
+     * with a long tail to the right.
+     * @param sigma spread, 0.5 puts the 99th percentile at about 3x the median
+     */
+    static LatencyDistribution logNormal(long medianMicros, double sigma){
+        double medianNanos = TimeUnit.MICROSECONDS.toNanos(medianMicros);
+        return random -> (long) (medianNanos * Math.exp(sigma * random.nextGaussian()));
+    }
+
+    /**
+     * Adds rare, long stalls to a distribution, like GC pauses or retransmits at the gateway.
+     * @param spikeRate share of the calls that stall, between 0 and 1
+     */
+    static LatencyDistribution withSpikes(LatencyDistribution base, double spikeRate, long spikeMicros){
+        long spikeNanos = TimeUnit.MICROSECONDS.toNanos(spikeMicros);
+        return random -> base.nextNanos(random) + (random.nextDouble() < spikeRate ? spikeNanos : 0);
+    }
+
+    @Override
+    public boolean bill(long amount) {
+        Money.check(amount);
+        charges.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latencyNanos = latency.nextNanos(random);
+        // parks for the whole latency, even if woken up early, unless interrupted
+        long deadline = System.nanoTime() + latencyNanos;
+        for (long remaining = latencyNanos; remaining > 0 && !Thread.currentThread().isInterrupted();
+             remaining = deadline - System.nanoTime()){
+            LockSupport.parkNanos(remaining);
+        }
+        if (random.nextDouble() < errorRate){
+            throw new IllegalStateException(name + " is unavailable");
+        }
+        return random.nextDouble() >= declineRate;
+    }
+
+    @Override
+    public CompletionStage<BillingResult> billAsync(long amount) {
+        Money.check(amount);
+        charges.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long latencyNanos = latency.nextNanos(random);
+        BillingResult result;
+        if (random.nextDouble() < errorRate){
+            result = new BillingResult(BillingResult.Status.FAILED, name, amount, latencyNanos,
+                    new IllegalStateException(name + " is unavailable"));
+        }
+        else {
+            BillingResult.Status status = random.nextDouble() >= declineRate
+                    ? BillingResult.Status.APPROVED : BillingResult.Status.DECLINED;
+            result = new BillingResult(status, name, amount, latencyNanos, null);
+        }
+        CompletableFuture<BillingResult> answer = new CompletableFuture<>();
+        NETWORK.schedule(() -> answer.complete(result), latencyNanos, TimeUnit.NANOSECONDS);
+        return answer;
+    }
+
+    /**
+     * Ignores the key, like {@link #bill(String, long)}, and stays non-blocking.
+     */
+    @Override
+    public CompletionStage<BillingResult> billAsync(String idempotencyKey, long amount) {
+        return billAsync(amount);
+    }
+
+    /**
+     * Only counts the void, it takes no time.
+     */
+    @Override
+    public void voidCharge(String idempotencyKey, long amount) {
+        voids.incrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    void setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+    }
+
+    void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @return number of charges sent to this gateway so far
+     */
+    long getCharges() {
+        return charges.get();
+    }
+
+    /**
+     * @return number of charges voided so far
+     */
+    long getVoids() {
+        return voids.get();
+    }
+}